@@ -0,0 +1,206 @@
+package com.package1.chess;
+
+/**
+ * Attack sets for every piece type, all built once at class-init so that move generation and
+ * check detection never walk rays at runtime.
+ *
+ * Slider attacks use fancy magic bitboards: the blockers on a square's relevant rays are
+ * multiplied by a per-square magic number and the top bits of the product index that square's
+ * slice of one flat attack table. The magics below were found offline by random search.
+ */
+final class Attacks {
+    static final long[] KNIGHT = new long[64];
+    static final long[] KING = new long[64];
+    /** Squares a pawn attacks, indexed {@code color * 64 + square}. */
+    static final long[] PAWN = new long[2 * 64];
+
+    /** Squares strictly between two aligned squares, indexed {@code a * 64 + b}; empty otherwise. */
+    static final long[] BETWEEN = new long[64 * 64];
+    /** The full line through two aligned squares, indexed {@code a * 64 + b}; empty otherwise. */
+    static final long[] LINE = new long[64 * 64];
+
+    /** Slider attacks on an empty board, used to find pinners and x-ray attackers. */
+    static final long[] ROOK_PSEUDO = new long[64];
+    static final long[] BISHOP_PSEUDO = new long[64];
+
+    private static final int[][] KNIGHT_STEPS = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+    private static final int[][] KING_STEPS = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+    private static final int[][] ROOK_DIRS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private static final long[] ROOK_MAGICS = {
+            0x0280008420400018L, 0x0280200080400010L, 0x4100081420010040L, 0x8200104008200600L,
+            0x1080040002080081L, 0x2880010200800400L, 0x8280010000800200L, 0x5980002100004080L,
+            0x2008800C81400121L, 0x8000808040002000L, 0x0084802000841000L, 0x0012001046000820L,
+            0x0023002431000800L, 0x0044010860040050L, 0x0085000100040200L, 0x001C800041001080L,
+            0x0120008080004000L, 0x2C00808020004000L, 0x0800820012260140L, 0x1010010010090021L,
+            0x4202020008041020L, 0xA800808004000200L, 0x0000040038011210L, 0x2001020004008041L,
+            0x0001400480048122L, 0x0000200080400080L, 0x0140124500200300L, 0x2410004040080401L,
+            0xC920040080800800L, 0x00C0040080800200L, 0x0405002100520004L, 0x0002010600048044L,
+            0x0010E14000800882L, 0x0010002000400058L, 0x02168A1000802000L, 0x1301001003002048L,
+            0x0808000A80800400L, 0x0082000400808002L, 0x0405280214005001L, 0x0302008402000041L,
+            0x0000800040008020L, 0x0480500020004000L, 0x1409001020010043L, 0x0000104200220008L,
+            0x52020120040A0010L, 0x0200020004008080L, 0x0408020001008080L, 0x02802A81114A000CL,
+            0x08512B0080024100L, 0x2040910020400100L, 0x0203806001D00480L, 0x020900E0D0000900L,
+            0x0028080080040080L, 0x8000020080040080L, 0x1040100108020400L, 0x80D1210400844600L,
+            0x0047012013800445L, 0x0020802040001101L, 0x0020001100244009L, 0x80004500A1100009L,
+            0x0402002010840882L, 0xE052004804013082L, 0x00020C8810021B0CL, 0x1000030144241082L,
+    };
+    private static final long[] BISHOP_MAGICS = {
+            0x000C9004CA040040L, 0x1008024082020028L, 0x0010010204240401L, 0x4014240080808584L,
+            0x0011104000040054L, 0x058C2208C0011000L, 0x1080845008040600L, 0x0000202210042009L,
+            0xC0C01320020C8200L, 0x0201024801010201L, 0x0004041800851908L, 0x4000040408900000L,
+            0x0010011040400000L, 0x3271011002112A88L, 0x2510341104422004L, 0x0000010042422054L,
+            0x04222004200C0510L, 0x0224800234180210L, 0x4042020404001200L, 0x0008048082004000L,
+            0x0104005610220000L, 0x0800808440504000L, 0x02060144020A1260L, 0x0001011080484204L,
+            0x5184464020200400L, 0x1004200502028404L, 0x4844900008002122L, 0x4020080001004008L,
+            0x1000840088802000L, 0x0010008101105004L, 0x0200810000880800L, 0x1B25090832004100L,
+            0x4202A02000042880L, 0x0010D42051100200L, 0x4000108209100400L, 0x2100400820420200L,
+            0x4008022400084100L, 0x2022308200410800L, 0x409682A200440600L, 0x010C010A40202404L,
+            0x1021440220104013L, 0x01088808020148C0L, 0x400050C028141000L, 0x0460004208020080L,
+            0x00902010A4010080L, 0x6001101000808042L, 0x1002100441001098L, 0x882400808108020CL,
+            0x40010C0121080499L, 0xE006808808420000L, 0x8000302108088402L, 0x0000280084040890L,
+            0x4000110810340204L, 0xC406900250010404L, 0x1040C20882008000L, 0x4183080800808800L,
+            0x200903080A014400L, 0x8000020080841084L, 0x0402220100824102L, 0x010000010820A808L,
+            0x0002240808102410L, 0x020001C090960480L, 0xA00060A001820086L, 0x0122100906028A08L,
+    };
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE;
+    private static final long[] BISHOP_TABLE;
+
+    static {
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT[sq] = leaperAttacks(sq, KNIGHT_STEPS);
+            KING[sq] = leaperAttacks(sq, KING_STEPS);
+            ROOK_PSEUDO[sq] = slidingAttacks(sq, 0L, ROOK_DIRS);
+            BISHOP_PSEUDO[sq] = slidingAttacks(sq, 0L, BISHOP_DIRS);
+            long b = Bitboards.bit(sq);
+            PAWN[sq] = ((b & ~Bitboards.FILE_A) << 7) | ((b & ~Bitboards.FILE_H) << 9);
+            PAWN[64 + sq] = ((b & ~Bitboards.FILE_H) >>> 7) | ((b & ~Bitboards.FILE_A) >>> 9);
+        }
+        ROOK_TABLE = initMagics(ROOK_DIRS, ROOK_MAGICS, ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS);
+        BISHOP_TABLE = initMagics(BISHOP_DIRS, BISHOP_MAGICS, BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS);
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+                if (a == b) {
+                    continue;
+                }
+                long bb = Bitboards.bit(b);
+                int[][] dirs;
+                if ((ROOK_PSEUDO[a] & bb) != 0) {
+                    dirs = ROOK_DIRS;
+                } else if ((BISHOP_PSEUDO[a] & bb) != 0) {
+                    dirs = BISHOP_DIRS;
+                } else {
+                    continue;
+                }
+                long blockers = Bitboards.bit(a) | bb;
+                BETWEEN[a * 64 + b] = slidingAttacks(a, blockers, dirs) & slidingAttacks(b, blockers, dirs);
+                LINE[a * 64 + b] = (slidingAttacks(a, 0L, dirs) & slidingAttacks(b, 0L, dirs)) | blockers;
+            }
+        }
+    }
+
+    private Attacks() {
+    }
+
+    static long pawnAttacks(int color, int sq) {
+        return PAWN[color * 64 + sq];
+    }
+
+    static long rookAttacks(int sq, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSETS[sq] + (int) (((occupied & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[sq]
+                + (int) (((occupied & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    static long between(int a, int b) {
+        return BETWEEN[a * 64 + b];
+    }
+
+    static long line(int a, int b) {
+        return LINE[a * 64 + b];
+    }
+
+    // fills masks, shifts and offsets and returns the flat table holding every square's slice
+    private static long[] initMagics(int[][] dirs, long[] magics, long[] masks, int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            masks[sq] = relevantOccupancy(sq, dirs);
+            int bits = Long.bitCount(masks[sq]);
+            shifts[sq] = 64 - bits;
+            offsets[sq] = size;
+            size += 1 << bits;
+        }
+        long[] table = new long[size];
+        for (int sq = 0; sq < 64; sq++) {
+            long mask = masks[sq];
+            long subset = 0L;
+            // enumerate every subset of the mask (carry-rippler)
+            do {
+                int index = offsets[sq] + (int) ((subset * magics[sq]) >>> shifts[sq]);
+                table[index] = slidingAttacks(sq, subset, dirs);
+                subset = (subset - mask) & mask;
+            } while (subset != 0);
+        }
+        return table;
+    }
+
+    // the squares whose occupancy can change the attacks from sq; board edges never block anything beyond them
+    private static long relevantOccupancy(int sq, int[][] dirs) {
+        long mask = 0L;
+        for (int[] dir : dirs) {
+            int col = Bitboards.col(sq) + dir[0];
+            int row = Bitboards.row(sq) + dir[1];
+            while (Bitboards.onBoard(col + dir[0], row + dir[1])) {
+                mask |= Bitboards.bit(Bitboards.square(col, row));
+                col += dir[0];
+                row += dir[1];
+            }
+        }
+        return mask;
+    }
+
+    private static long leaperAttacks(int sq, int[][] steps) {
+        long attacks = 0L;
+        for (int[] step : steps) {
+            int col = Bitboards.col(sq) + step[0];
+            int row = Bitboards.row(sq) + step[1];
+            if (Bitboards.onBoard(col, row)) {
+                attacks |= Bitboards.bit(Bitboards.square(col, row));
+            }
+        }
+        return attacks;
+    }
+
+    private static long slidingAttacks(int sq, long occupied, int[][] dirs) {
+        long attacks = 0L;
+        for (int[] dir : dirs) {
+            int col = Bitboards.col(sq) + dir[0];
+            int row = Bitboards.row(sq) + dir[1];
+            while (Bitboards.onBoard(col, row)) {
+                long b = Bitboards.bit(Bitboards.square(col, row));
+                attacks |= b;
+                if ((occupied & b) != 0) {
+                    break;
+                }
+                col += dir[0];
+                row += dir[1];
+            }
+        }
+        return attacks;
+    }
+}
@@ -0,0 +1,381 @@
+package com.package1.chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Win/draw bitbases for king and queen, king and rook, and king and pawn against a lone king.
+ *
+ * Each table has one bit per position, set if the side with the extra piece wins, indexed from
+ * that side's point of view with the weak king, the piece, the strong king and the side to move.
+ * Without a pawn the board's eight symmetries are folded away by moving the strong king into the
+ * a1-d1-d4 triangle; with a pawn only the left-right mirror applies, putting the pawn on files a
+ * to d. A table is then 10 or 24 times 64 times 64 times 2 bits, 10 or 24 KB on disk.
+ *
+ * Tables are generated by retrograde analysis: positions are marked won, drawn or unknown in
+ * passes until a pass changes nothing, and the ones still unknown are draws. Each pass is split
+ * into slices of the index over a fork-join pool. A slice may read entries another slice is
+ * writing, but entries only ever go from unknown to final, so a stale read merely leaves a
+ * position for the next pass, and the pass that ends the loop saw none of them change.
+ */
+final class Bitbases {
+    static final int KQK = 0;
+    static final int KRK = 1;
+    static final int KPK = 2;
+    static final String[] FILE_NAMES = {"kqk.bb", "krk.bb", "kpk.bb"};
+
+    /** Probe results for the side to move. */
+    static final int NONE = -1;
+    static final int LOSS = 0;
+    static final int DRAW = 1;
+    static final int WIN = 2;
+
+    private static final int[] PIECE_TYPES = {Position.QUEEN, Position.ROOK, Position.PAWN};
+    private static final int[] KING_OR_PAWN_SQUARES = {10, 10, 24};
+    private static final int STRONG_TO_MOVE = 0;
+    private static final int WEAK_TO_MOVE = 1;
+    /** Entries per fork-join slice. */
+    private static final int SLICE = 4096;
+
+    // generation states
+    private static final byte UNKNOWN = 0;
+    private static final byte WON = 1;
+    private static final byte DRAWN = 2;
+    private static final byte INVALID = 3;
+
+    /** Index of each square in the a1-d1-d4 triangle, or -1. */
+    private static final int[] TRIANGLE = new int[64];
+    private static final int[] TRIANGLE_SQUARES = new int[10];
+
+    static {
+        int next = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            int col = Bitboards.col(sq);
+            int row = Bitboards.row(sq);
+            TRIANGLE[sq] = col <= 3 && row <= col ? next : -1;
+            if (TRIANGLE[sq] >= 0) {
+                TRIANGLE_SQUARES[next++] = sq;
+            }
+        }
+    }
+
+    private final long[][] tables;
+
+    private Bitbases(long[][] tables) {
+        this.tables = tables;
+    }
+
+    /** Generates all three tables on {@code pool}. */
+    static Bitbases generate(ForkJoinPool pool) {
+        long[][] tables = new long[3][];
+        tables[KQK] = pack(generate(KQK, tables, pool));
+        tables[KRK] = pack(generate(KRK, tables, pool));
+        // promotions look up the finished queen and rook tables
+        tables[KPK] = pack(generate(KPK, tables, pool));
+        return new Bitbases(tables);
+    }
+
+    /** Reads the tables written by {@link #write} from {@code dir}. */
+    static Bitbases load(Path dir) throws IOException {
+        long[][] tables = new long[3][];
+        for (int ending = KQK; ending <= KPK; ending++) {
+            Path file = dir.resolve(FILE_NAMES[ending]);
+            byte[] bytes = Files.readAllBytes(file);
+            tables[ending] = new long[(size(ending) + 63) / 64];
+            if (bytes.length != tables[ending].length * 8) {
+                throw new IOException(file + ": expected " + tables[ending].length * 8 + " bytes, found " + bytes.length);
+            }
+            ByteBuffer.wrap(bytes).asLongBuffer().get(tables[ending]);
+        }
+        return new Bitbases(tables);
+    }
+
+    void write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (int ending = KQK; ending <= KPK; ending++) {
+            var buffer = ByteBuffer.allocate(tables[ending].length * 8);
+            buffer.asLongBuffer().put(tables[ending]);
+            Files.write(dir.resolve(FILE_NAMES[ending]), buffer.array());
+        }
+    }
+
+    /**
+     * {@link #WIN}, {@link #DRAW} or {@link #LOSS} for the side to move in {@code p} with perfect
+     * play, or {@link #NONE} if {@code p} is not one of the covered endings.
+     */
+    int probe(Position p) {
+        if (Bitboards.count(p.occupied) != 3) {
+            return NONE;
+        }
+        for (int ending = KQK; ending <= KPK; ending++) {
+            for (int strong = Position.WHITE; strong <= Position.BLACK; strong++) {
+                long piece = p.pieces(strong, PIECE_TYPES[ending]);
+                if (piece == 0) {
+                    continue;
+                }
+                // the tables have the strong side as white, pawns moving up the board
+                int flip = strong == Position.WHITE ? 0 : 56;
+                int index = index(ending, p.kingSquare(strong) ^ flip, Bitboards.lsb(piece) ^ flip,
+                        p.kingSquare(strong ^ 1) ^ flip, p.sideToMove == strong ? STRONG_TO_MOVE : WEAK_TO_MOVE);
+                if (!isSet(tables[ending], index)) {
+                    return DRAW;
+                }
+                return p.sideToMove == strong ? WIN : LOSS;
+            }
+        }
+        return NONE;
+    }
+
+    /** Positions won by the strong side in {@code ending}, counting both sides to move. */
+    int wins(int ending) {
+        int wins = 0;
+        for (long word : tables[ending]) {
+            wins += Bitboards.count(word);
+        }
+        return wins;
+    }
+
+    /** {@code bitbase <dir>}: generates the tables and writes them to {@code dir}. */
+    static int run(String[] args) throws IOException {
+        Path dir = Path.of(args.length > 0 ? args[0] : "bitbases");
+        long start = System.nanoTime();
+        Bitbases bitbases = generate(ForkJoinPool.commonPool());
+        long millis = (System.nanoTime() - start) / 1_000_000L;
+        bitbases.write(dir);
+        for (int ending = KQK; ending <= KPK; ending++) {
+            System.out.println(FILE_NAMES[ending] + ": " + bitbases.wins(ending) + " of " + size(ending) + " won");
+        }
+        System.out.println("generated in " + millis + " ms on " + ForkJoinPool.commonPool().getParallelism()
+                + " threads, written to " + dir.toAbsolutePath());
+        return 0;
+    }
+
+    static int size(int ending) {
+        return 2 * KING_OR_PAWN_SQUARES[ending] * 64 * 64;
+    }
+
+    /**
+     * The index of a position with the strong side as white. The squares may be anywhere; the
+     * position is reflected into the table's half or eighth of the board first.
+     */
+    static int index(int ending, int strongKing, int piece, int weakKing, int toMove) {
+        if (ending == KPK) {
+            if (Bitboards.col(piece) > 3) {
+                strongKing ^= 7;
+                piece ^= 7;
+                weakKing ^= 7;
+            }
+            int pawn = (Bitboards.row(piece) - 1) * 4 + Bitboards.col(piece);
+            return ((toMove * 24 + pawn) * 64 + strongKing) * 64 + weakKing;
+        }
+        if (Bitboards.col(strongKing) > 3) {
+            strongKing ^= 7;
+            piece ^= 7;
+            weakKing ^= 7;
+        }
+        if (Bitboards.row(strongKing) > 3) {
+            strongKing ^= 56;
+            piece ^= 56;
+            weakKing ^= 56;
+        }
+        if (Bitboards.row(strongKing) > Bitboards.col(strongKing)) {
+            strongKing = transpose(strongKing);
+            piece = transpose(piece);
+            weakKing = transpose(weakKing);
+        }
+        return ((toMove * 10 + TRIANGLE[strongKing]) * 64 + piece) * 64 + weakKing;
+    }
+
+    private static int transpose(int sq) {
+        return Bitboards.square(Bitboards.row(sq), Bitboards.col(sq));
+    }
+
+    private static boolean isSet(long[] table, int index) {
+        return (table[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static long[] pack(byte[] states) {
+        long[] table = new long[(states.length + 63) / 64];
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == WON) {
+                table[i >>> 6] |= 1L << i;
+            }
+        }
+        return table;
+    }
+
+    private static byte[] generate(int ending, long[][] done, ForkJoinPool pool) {
+        byte[] states = new byte[size(ending)];
+        var changed = new AtomicInteger();
+        do {
+            changed.set(0);
+            pool.invoke(new Pass(ending, states, done, changed, 0, states.length));
+        } while (changed.get() > 0);
+        return states;
+    }
+
+    /** One pass over a slice of the index, splitting in halves down to {@link #SLICE} entries. */
+    private static final class Pass extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int ending;
+        private final byte[] states;
+        private final long[][] done;
+        private final AtomicInteger changed;
+        private final int from;
+        private final int to;
+
+        Pass(int ending, byte[] states, long[][] done, AtomicInteger changed, int from, int to) {
+            this.ending = ending;
+            this.states = states;
+            this.done = done;
+            this.changed = changed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SLICE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Pass(ending, states, done, changed, from, mid),
+                        new Pass(ending, states, done, changed, mid, to));
+                return;
+            }
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (states[i] == UNKNOWN) {
+                    byte state = classify(i);
+                    if (state != UNKNOWN) {
+                        states[i] = state;
+                        count++;
+                    }
+                }
+            }
+            if (count > 0) {
+                changed.addAndGet(count);
+            }
+        }
+
+        private byte classify(int index) {
+            int weakKing = index & 63;
+            int rest = index >>> 6;
+            int strongKing;
+            int piece;
+            int toMove;
+            if (ending == KPK) {
+                strongKing = rest & 63;
+                int pawn = (rest >>> 6) % 24;
+                piece = Bitboards.square(pawn & 3, pawn / 4 + 1);
+                toMove = (rest >>> 6) / 24;
+            } else {
+                piece = rest & 63;
+                strongKing = TRIANGLE_SQUARES[(rest >>> 6) % 10];
+                toMove = (rest >>> 6) / 10;
+            }
+            if (strongKing == piece || strongKing == weakKing || piece == weakKing
+                    || (Attacks.KING[strongKing] & Bitboards.bit(weakKing)) != 0) {
+                return INVALID;
+            }
+            long occupied = Bitboards.bit(strongKing) | Bitboards.bit(piece) | Bitboards.bit(weakKing);
+            long pieceAttacks = attacks(piece, occupied & ~Bitboards.bit(weakKing));
+            if (toMove == STRONG_TO_MOVE) {
+                // the weak king cannot be left in check
+                return (pieceAttacks & Bitboards.bit(weakKing)) != 0 ? INVALID : strongMoves(strongKing, piece, weakKing, occupied);
+            }
+            return weakMoves(strongKing, piece, weakKing, pieceAttacks);
+        }
+
+        // won if any move wins, drawn once every move is known not to
+        private byte strongMoves(int strongKing, int piece, int weakKing, long occupied) {
+            boolean unknown = false;
+            long kingMoves = Attacks.KING[strongKing] & ~Bitboards.bit(piece) & ~Attacks.KING[weakKing];
+            while (kingMoves != 0) {
+                int to = Bitboards.lsb(kingMoves);
+                kingMoves &= kingMoves - 1;
+                byte child = states[index(ending, to, piece, weakKing, WEAK_TO_MOVE)];
+                if (child == WON) {
+                    return WON;
+                }
+                unknown |= child == UNKNOWN;
+            }
+            if (ending == KPK) {
+                int push = piece + 8;
+                if ((occupied & Bitboards.bit(push)) != 0) {
+                    return unknown ? UNKNOWN : DRAWN;
+                }
+                if (Bitboards.row(push) == 7) {
+                    // the finished tables answer for the promoted piece; a rook can win where a queen stalemates
+                    if (isSet(done[KQK], index(KQK, strongKing, push, weakKing, WEAK_TO_MOVE))
+                            || isSet(done[KRK], index(KRK, strongKing, push, weakKing, WEAK_TO_MOVE))) {
+                        return WON;
+                    }
+                } else {
+                    byte child = states[index(ending, strongKing, push, weakKing, WEAK_TO_MOVE)];
+                    if (child == WON) {
+                        return WON;
+                    }
+                    unknown |= child == UNKNOWN;
+                    if (Bitboards.row(piece) == 1 && (occupied & Bitboards.bit(push + 8)) == 0) {
+                        child = states[index(ending, strongKing, push + 8, weakKing, WEAK_TO_MOVE)];
+                        if (child == WON) {
+                            return WON;
+                        }
+                        unknown |= child == UNKNOWN;
+                    }
+                }
+            } else {
+                long pieceMoves = attacks(piece, occupied) & ~occupied;
+                while (pieceMoves != 0) {
+                    int to = Bitboards.lsb(pieceMoves);
+                    pieceMoves &= pieceMoves - 1;
+                    byte child = states[index(ending, strongKing, to, weakKing, WEAK_TO_MOVE)];
+                    if (child == WON) {
+                        return WON;
+                    }
+                    unknown |= child == UNKNOWN;
+                }
+            }
+            return unknown ? UNKNOWN : DRAWN;
+        }
+
+        // won once every move loses, drawn if any move draws, including taking an undefended piece
+        private byte weakMoves(int strongKing, int piece, int weakKing, long pieceAttacks) {
+            long guarded = Attacks.KING[strongKing] | pieceAttacks;
+            long moves = Attacks.KING[weakKing] & ~guarded;
+            if (moves == 0) {
+                return (guarded & Bitboards.bit(weakKing)) != 0 ? WON : DRAWN;
+            }
+            if ((moves & Bitboards.bit(piece)) != 0) {
+                return DRAWN;
+            }
+            boolean unknown = false;
+            while (moves != 0) {
+                int to = Bitboards.lsb(moves);
+                moves &= moves - 1;
+                byte child = states[index(ending, strongKing, piece, to, STRONG_TO_MOVE)];
+                if (child == DRAWN) {
+                    return DRAWN;
+                }
+                unknown |= child == UNKNOWN;
+            }
+            return unknown ? UNKNOWN : WON;
+        }
+
+        private long attacks(int piece, long occupied) {
+            switch (PIECE_TYPES[ending]) {
+                case Position.QUEEN:
+                    return Attacks.queenAttacks(piece, occupied);
+                case Position.ROOK:
+                    return Attacks.rookAttacks(piece, occupied);
+                default:
+                    return Attacks.pawnAttacks(Position.WHITE, piece);
+            }
+        }
+    }
+}
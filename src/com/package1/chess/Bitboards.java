@@ -0,0 +1,46 @@
+package com.package1.chess;
+
+/**
+ * Square and bitboard helpers. Squares are numbered {@code row * 8 + col}, so bit 0 is the
+ * white queen-side rook corner (col 0, row 0) and bit 63 is col 7, row 7.
+ */
+final class Bitboards {
+    static final long EMPTY = 0L;
+    static final long ALL = ~0L;
+
+    static final long FILE_A = 0x0101010101010101L;
+    static final long FILE_H = FILE_A << 7;
+    static final long ROW_1 = 0xFFL;
+    static final long ROW_8 = ROW_1 << 56;
+
+    private Bitboards() {
+    }
+
+    static int square(int col, int row) {
+        return row * 8 + col;
+    }
+
+    static int col(int square) {
+        return square & 7;
+    }
+
+    static int row(int square) {
+        return square >>> 3;
+    }
+
+    static boolean onBoard(int col, int row) {
+        return col >= 0 && col < 8 && row >= 0 && row < 8;
+    }
+
+    static long bit(int square) {
+        return 1L << square;
+    }
+
+    static int lsb(long bb) {
+        return Long.numberOfTrailingZeros(bb);
+    }
+
+    static int count(long bb) {
+        return Long.bitCount(bb);
+    }
+}
@@ -0,0 +1,605 @@
+package com.package1.chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Builds a {@link PolyglotBook} from PGN files.
+ *
+ * The calling thread only splits the PGN text into games; one worker per core replays them
+ * through its own {@link ChessModel} and credits each move of the first plies with 2 for a win
+ * and 1 for a draw of the side that played it, as Polyglot does. The counts go into open
+ * addressing tables of primitive arrays, one shard per top six bits of the position key, so the
+ * workers rarely wait for each other, and since shards split the key range in order, the book is
+ * just the shards written one after the other.
+ *
+ * A shard that fills its share of the memory budget is sorted and spilled to a temporary run
+ * file, and at the end each shard's runs are merged, so the input can be far larger than the
+ * heap. Weights above the 16 bits of a book entry are scaled down per position.
+ */
+final class BookBuilder {
+    private static final int SHARD_BITS = 6;
+    private static final int SHARDS = 1 << SHARD_BITS;
+    /** Bytes of heap per counted entry: a key, a move and a weight at half load. */
+    private static final int BYTES_PER_ENTRY = 32;
+    private static final int MAX_WEIGHT = 0xFFFF;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    /** Games handed to the workers but not yet taken. */
+    private static final int QUEUE_GAMES = 4096;
+    /** Told apart from games by identity. */
+    private static final String END_OF_INPUT = new String("end of input");
+
+    private final int maxPlies;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final AtomicLong games = new AtomicLong();
+    private final AtomicLong positions = new AtomicLong();
+    private final AtomicLong badGames = new AtomicLong();
+    /** The first exception a worker stopped on. */
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final Path tempDir;
+
+    BookBuilder(int maxPlies, long memoryBytes, Path tempDir) {
+        this.maxPlies = maxPlies;
+        this.tempDir = tempDir;
+        int shardEntries = (int) Math.min(1 << 24, Math.max(1024, memoryBytes / BYTES_PER_ENTRY / SHARDS));
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(shardEntries);
+        }
+    }
+
+    /** {@code book <out.bin> <pgn>... [plies=N] [memory=MB]}. */
+    static int run(String[] args) throws IOException, InterruptedException {
+        int maxPlies = 30;
+        // the rest of the heap is for the games in flight and the shard that is growing
+        long memoryBytes = Runtime.getRuntime().maxMemory() / 2;
+        Path out = null;
+        List<Path> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("plies=")) {
+                maxPlies = Integer.parseInt(arg.substring(6));
+            } else if (arg.startsWith("memory=")) {
+                memoryBytes = Math.min(Long.parseLong(arg.substring(7)) << 20, memoryBytes);
+            } else if (out == null) {
+                out = Path.of(arg);
+            } else {
+                inputs.add(Path.of(arg));
+            }
+        }
+        if (out == null || inputs.isEmpty()) {
+            System.err.println("usage: book <out.bin> <pgn>... [plies=N] [memory=MB]");
+            return 2;
+        }
+
+        Path tempDir = Files.createTempDirectory(out.toAbsolutePath().getParent(), "book");
+        BookBuilder builder = null;
+        try {
+            builder = new BookBuilder(maxPlies, memoryBytes, tempDir);
+            long start = System.nanoTime();
+            builder.read(inputs, Runtime.getRuntime().availableProcessors());
+            long entries = builder.write(out);
+            long millis = (System.nanoTime() - start) / 1_000_000L;
+            System.out.println(builder.games.get() + " games (" + builder.badGames.get() + " with unplayable moves), "
+                    + builder.positions.get() + " positions, " + entries + " entries, "
+                    + builder.spills() + " runs spilled, " + millis + " ms");
+        } finally {
+            if (builder != null) {
+                builder.deleteRuns();
+            }
+            Files.deleteIfExists(tempDir);
+        }
+        return 0;
+    }
+
+    /**
+     * Splits the files into games for {@code threads} workers and waits until all are counted.
+     * The first failure of a worker, such as a full disk when a shard spills, stops the reading
+     * and is thrown here.
+     */
+    void read(List<Path> inputs, int threads) throws IOException, InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_GAMES);
+        var workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            replayGames(queue);
+                        } catch (IOException | RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                            // keeps taking games, so that the reader never waits on a full queue
+                            while (queue.take() != END_OF_INPUT) {
+                                // dropped
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "book-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Path input : inputs) {
+                if (failure.get() != null) {
+                    break;
+                }
+                try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.ISO_8859_1)) {
+                    splitGames(reader, queue);
+                }
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                queue.put(END_OF_INPUT);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+    }
+
+    /** Writes the book, shard by shard in key order, and returns how many entries it has. */
+    long write(Path out) throws IOException {
+        long entries = 0;
+        try (var stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(out), 1 << 16))) {
+            var group = new PositionGroup(stream);
+            for (Shard shard : shards) {
+                shard.finish(group);
+            }
+            group.flush();
+            entries = group.written;
+        }
+        return entries;
+    }
+
+    private void deleteRuns() throws IOException {
+        for (Shard shard : shards) {
+            for (Path run : shard.runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private int spills() {
+        int spills = 0;
+        for (Shard shard : shards) {
+            spills += shard.runs.size();
+        }
+        return spills;
+    }
+
+    // a game is its tag pairs followed by its movetext; the next tag pair after movetext starts another
+    private void splitGames(BufferedReader reader, BlockingQueue<String> queue)
+            throws IOException, InterruptedException {
+        var game = new StringBuilder();
+        boolean inMoves = false;
+        String line;
+        while ((line = reader.readLine()) != null && failure.get() == null) {
+            if (line.startsWith("[") && inMoves) {
+                queue.put(game.toString());
+                game.setLength(0);
+                inMoves = false;
+            } else if (!line.isBlank() && !line.startsWith("[") && !line.startsWith("%")) {
+                inMoves = true;
+            }
+            game.append(line).append('\n');
+        }
+        if (inMoves) {
+            queue.put(game.toString());
+        }
+    }
+
+    private void replayGames(BlockingQueue<String> queue) throws IOException, InterruptedException {
+        var model = new ChessModel();
+        var sans = new ArrayList<String>();
+        String game;
+        while ((game = queue.take()) != END_OF_INPUT) {
+            int result = parseGame(game, sans);
+            games.incrementAndGet();
+            if (result < 0) {
+                continue;
+            }
+            model.reset();
+            int plies = Math.min(sans.size(), maxPlies);
+            for (int ply = 0; ply < plies; ply++) {
+                long key = model.polyglotKey();
+                boolean white = model.playerInTurn() == Player.WHITE;
+                int move = model.makeSanMove(sans.get(ply));
+                if (move == Move.NONE) {
+                    badGames.incrementAndGet();
+                    break;
+                }
+                int weight = result == 1 ? 1 : (result == 2) == white ? 2 : 0;
+                if (weight > 0) {
+                    shards[(int) (key >>> (64 - SHARD_BITS))].add(key, PolyglotBook.toBookMove(move), weight);
+                }
+                positions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Collects the SAN moves of one game, skipping comments, variations, move numbers and NAGs.
+     * Returns 2 if white won, 0 if black won, 1 for a draw and -1 if the game has no result.
+     */
+    private static int parseGame(String game, List<String> sans) {
+        sans.clear();
+        int result = -1;
+        int depth = 0;
+        int i = 0;
+        int length = game.length();
+        while (i < length) {
+            char c = game.charAt(i);
+            if (c == '[' && depth == 0 && (i == 0 || game.charAt(i - 1) == '\n')) {
+                int end = game.indexOf('\n', i);
+                String tag = game.substring(i, end < 0 ? length : end);
+                if (tag.startsWith("[Result ")) {
+                    result = parseResult(tag.substring(8).replace("\"", "").replace("]", "").trim(), result);
+                }
+                i = end < 0 ? length : end;
+            } else if (c == '{') {
+                int end = game.indexOf('}', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == ';') {
+                int end = game.indexOf('\n', i);
+                i = end < 0 ? length : end;
+            } else if (c == '(') {
+                depth++;
+                i++;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else {
+                int start = i;
+                while (i < length && !Character.isWhitespace(game.charAt(i)) && "{;()".indexOf(game.charAt(i)) < 0) {
+                    i++;
+                }
+                if (depth == 0) {
+                    String token = game.substring(start, i);
+                    // a move number is digits ended by dots, as in 12. or 12...e5; 0-0 is castling
+                    int moveStart = 0;
+                    while (moveStart < token.length() && Character.isDigit(token.charAt(moveStart))) {
+                        moveStart++;
+                    }
+                    if (moveStart < token.length() && token.charAt(moveStart) == '.') {
+                        while (moveStart < token.length() && token.charAt(moveStart) == '.') {
+                            moveStart++;
+                        }
+                    } else {
+                        moveStart = 0;
+                    }
+                    int tokenResult = parseResult(token, -2);
+                    if (tokenResult != -2) {
+                        result = tokenResult;
+                    } else if (moveStart < token.length() && "$!?".indexOf(token.charAt(0)) < 0) {
+                        sans.add(token.substring(moveStart));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int parseResult(String text, int otherwise) {
+        switch (text) {
+            case "1-0":
+                return 2;
+            case "0-1":
+                return 0;
+            case "1/2-1/2":
+                return 1;
+            case "*":
+                return -1;
+            default:
+                return otherwise;
+        }
+    }
+
+    /**
+     * Counts for a sixty-fourth of the key range. Entries live in parallel arrays probed linearly
+     * from a hash of key and move; a move of 0 marks an empty slot, so moves are stored plus one.
+     * The arrays double as the shard fills, up to its share of the budget.
+     */
+    private final class Shard {
+        private long[] keys;
+        private int[] moves;
+        private int[] weights;
+        private final int maxCapacity;
+        private int size;
+        private final List<Path> runs = new ArrayList<>();
+
+        Shard(int budgetEntries) {
+            maxCapacity = Integer.highestOneBit(budgetEntries * 2);
+            int capacity = Math.min(INITIAL_CAPACITY, maxCapacity);
+            keys = new long[capacity];
+            moves = new int[capacity];
+            weights = new int[capacity];
+        }
+
+        synchronized void add(long key, int move, int weight) throws IOException {
+            int mask = keys.length - 1;
+            int slot = slot(key, move, mask);
+            while (moves[slot] != 0) {
+                if (keys[slot] == key && moves[slot] == move + 1) {
+                    weights[slot] = (int) Math.min(Integer.MAX_VALUE, (long) weights[slot] + weight);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            moves[slot] = move + 1;
+            weights[slot] = weight;
+            if (++size >= keys.length / 2) {
+                if (keys.length < maxCapacity) {
+                    grow();
+                } else {
+                    spill();
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldMoves = moves;
+            int[] oldWeights = weights;
+            keys = new long[oldKeys.length * 2];
+            moves = new int[oldKeys.length * 2];
+            weights = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldMoves[i] != 0) {
+                    int slot = slot(oldKeys[i], oldMoves[i] - 1, mask);
+                    while (moves[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    moves[slot] = oldMoves[i];
+                    weights[slot] = oldWeights[i];
+                }
+            }
+        }
+
+        /** Writes the shard's entries, merging any spilled runs, in key order. */
+        synchronized void finish(PositionGroup group) throws IOException {
+            if (runs.isEmpty()) {
+                int count = sortInPlace();
+                for (int i = 0; i < count; i++) {
+                    group.add(keys[i], moves[i] - 1, weights[i]);
+                }
+                clear();
+                return;
+            }
+            if (size > 0) {
+                spill();
+            }
+            merge(group);
+        }
+
+        private void spill() throws IOException {
+            int count = sortInPlace();
+            Path run = Files.createTempFile(tempDir, "run", ".bin");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeInt(moves[i] - 1);
+                    out.writeInt(weights[i]);
+                }
+            }
+            runs.add(run);
+            clear();
+        }
+
+        // runs are few, one per spill, so the smallest head is found by a scan rather than a heap
+        private void merge(PositionGroup group) throws IOException {
+            int count = runs.size();
+            var inputs = new DataInputStream[count];
+            long[] headKeys = new long[count];
+            int[] headMoves = new int[count];
+            int[] headWeights = new int[count];
+            boolean[] live = new boolean[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    inputs[i] = new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i)), 1 << 16));
+                    live[i] = next(inputs[i], i, headKeys, headMoves, headWeights);
+                }
+                while (true) {
+                    int min = -1;
+                    for (int i = 0; i < count; i++) {
+                        if (live[i] && (min < 0 || compare(headKeys[i], headMoves[i], headKeys[min], headMoves[min]) < 0)) {
+                            min = i;
+                        }
+                    }
+                    if (min < 0) {
+                        break;
+                    }
+                    group.add(headKeys[min], headMoves[min], headWeights[min]);
+                    live[min] = next(inputs[min], min, headKeys, headMoves, headWeights);
+                }
+            } finally {
+                for (DataInputStream input : inputs) {
+                    if (input != null) {
+                        input.close();
+                    }
+                }
+            }
+        }
+
+        private static boolean next(DataInputStream in, int i, long[] keys, int[] moves, int[] weights)
+                throws IOException {
+            try {
+                keys[i] = in.readLong();
+                moves[i] = in.readInt();
+                weights[i] = in.readInt();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        // moves the live slots to the front and sorts them by unsigned key, then move
+        private int sortInPlace() {
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (moves[i] != 0) {
+                    keys[count] = keys[i];
+                    moves[count] = moves[i];
+                    weights[count] = weights[i];
+                    count++;
+                }
+            }
+            sort(0, count - 1);
+            return count;
+        }
+
+        private void clear() {
+            Arrays.fill(moves, 0);
+            size = 0;
+        }
+
+        private void sort(int low, int high) {
+            while (high - low > 16) {
+                int mid = (low + high) >>> 1;
+                long pivotKey = keys[mid];
+                int pivotMove = moves[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(keys[i], moves[i], pivotKey, pivotMove) < 0) {
+                        i++;
+                    }
+                    while (compare(keys[j], moves[j], pivotKey, pivotMove) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                // recurse into the smaller side so the stack stays logarithmic
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(keys[j - 1], moves[j - 1], keys[j], moves[j]) > 0; j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            long key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            int move = moves[a];
+            moves[a] = moves[b];
+            moves[b] = move;
+            int weight = weights[a];
+            weights[a] = weights[b];
+            weights[b] = weight;
+        }
+
+        private static int compare(long keyA, int moveA, long keyB, int moveB) {
+            int byKey = Long.compareUnsigned(keyA, keyB);
+            return byKey != 0 ? byKey : Integer.compare(moveA, moveB);
+        }
+
+        private static int slot(long key, int move, int mask) {
+            long x = key ^ move * 0x9E3779B97F4A7C15L;
+            x ^= x >>> 33;
+            x *= 0xFF51AFD7ED558CCDL;
+            x ^= x >>> 33;
+            return (int) x & mask;
+        }
+    }
+
+    /**
+     * Gathers the sorted entries of one position, summing the same move from different runs, and
+     * writes them heaviest first once the next position starts.
+     */
+    private static final class PositionGroup {
+        private final DataOutputStream out;
+        private long key;
+        private int[] moves = new int[64];
+        private long[] weights = new long[64];
+        private int count;
+        long written;
+
+        PositionGroup(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void add(long entryKey, int move, long weight) throws IOException {
+            if (count > 0 && entryKey != key) {
+                flush();
+            }
+            key = entryKey;
+            if (count > 0 && moves[count - 1] == move) {
+                weights[count - 1] += weight;
+                return;
+            }
+            if (count == moves.length) {
+                moves = Arrays.copyOf(moves, count * 2);
+                weights = Arrays.copyOf(weights, count * 2);
+            }
+            moves[count] = move;
+            weights[count] = weight;
+            count++;
+        }
+
+        void flush() throws IOException {
+            long max = 0;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, weights[i]);
+            }
+            for (int i = 1; i < count; i++) {
+                for (int j = i; j > 0 && weights[j - 1] < weights[j]; j--) {
+                    long weight = weights[j - 1];
+                    weights[j - 1] = weights[j];
+                    weights[j] = weight;
+                    int move = moves[j - 1];
+                    moves[j - 1] = moves[j];
+                    moves[j] = move;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                long weight = max > MAX_WEIGHT ? weights[i] * MAX_WEIGHT / max : weights[i];
+                if (weight == 0) {
+                    continue;
+                }
+                out.writeLong(key);
+                out.writeShort(moves[i]);
+                out.writeShort((int) weight);
+                out.writeInt(0);
+                written++;
+            }
+            count = 0;
+        }
+    }
+}
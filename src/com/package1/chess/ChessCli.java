@@ -0,0 +1,68 @@
+package com.package1.chess;
+
+import java.util.Arrays;
+
+/**
+ * Headless entry point for the tools that do not need the Swing board. The first argument picks
+ * the mode and the rest are passed on to it. Nothing reachable from here may touch AWT.
+ */
+public class ChessCli {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            System.exit(2);
+        }
+        String[] rest = Arrays.copyOfRange(args, 1, args.length);
+        int status;
+        try {
+            switch (args[0]) {
+                case "perft":
+                    status = Perft.run(rest);
+                    break;
+                case "smp":
+                    status = SmpBench.run(rest);
+                    break;
+                case "bench":
+                    status = SearchBench.run(rest);
+                    break;
+                case "uci":
+                    status = Uci.run(rest);
+                    break;
+                case "book":
+                    status = BookBuilder.run(rest);
+                    break;
+                case "bitbase":
+                    status = Bitbases.run(rest);
+                    break;
+                case "server":
+                    status = GameServer.run(rest);
+                    break;
+                default:
+                    usage();
+                    status = 2;
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // a malformed FEN or number among the arguments
+            System.err.println(e.getMessage());
+            status = 2;
+        }
+        System.exit(status);
+    }
+
+    private static void usage() {
+        System.err.println("usage: ChessCli <mode> [args...]");
+        System.err.println("  perft <depth> [fen]          count leaf nodes");
+        System.err.println("  perft divide <depth> [fen]   per-root-move counts");
+        System.err.println("  perft suite [maxDepth]       check the reference positions");
+        System.err.println("  smp [threads] [depth] [mb]   Lazy SMP time-to-depth speedup");
+        System.err.println("  bench [depth] [mb]           nodes to depth per search option");
+        System.err.println("  uci                          talk UCI on stdin and stdout");
+        System.err.println("  book <out.bin> <pgn>... [plies=N] [memory=MB]");
+        System.err.println("                               build a Polyglot book from PGN files");
+        System.err.println("  bitbase [dir]                generate the KQK, KRK and KPK bitbases");
+        System.err.println("  server [port] [loops] [virtual]");
+        System.err.println("                               host games for network clients");
+    }
+}
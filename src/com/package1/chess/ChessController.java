@@ -8,15 +8,19 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.net.Socket;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ChessController implements ChessDelegate, ActionListener{
     private String SOCKET_SERVER_ADDR = "localhost";
     private int PORT = 50000;
+    // the engine plays on its own clock, five minutes plus two seconds a move
+    private static final long ENGINE_CLOCK_MILLIS = 5 * 60 * 1000;
+    private static final long ENGINE_INCREMENT_MILLIS = 2000;
+    private static final long HINT_MILLIS = 500;
 
     private ChessModel chessModel = new ChessModel();
 
@@ -25,14 +29,26 @@ public class ChessController implements ChessDelegate, ActionListener{
     private JButton resetBtn;
     private JButton serverBtn;
     private JButton clientBtn;
+    private JButton engineBtn;
+    private JButton hintBtn;
 
-    private ServerSocket listener;
+    private final Engine engine = new Engine();
+    private PolyglotBook book;
+    private Player enginePlayer;
+    // the side the game server gave this board, once it has said
+    private Player networkPlayer;
+    private long engineClockMillis = ENGINE_CLOCK_MILLIS;
+    // bumped by every engine move started and by Reset; a reply from an older search is dropped
+    private int engineSearch;
+    private boolean hintPending;
+
+    private GameServer gameServer;
     private Socket socket;
     private PrintWriter printWriter;
 
     ChessController(){
         chessModel.reset();
-
+        openBook();
 
         frame = new JFrame("Chess Game");
         frame.setSize(600,600);
@@ -54,6 +70,14 @@ public class ChessController implements ChessDelegate, ActionListener{
         buttonsPanel.add(clientBtn);
         clientBtn.addActionListener(this);
 
+        engineBtn = new JButton("Engine");
+        buttonsPanel.add(engineBtn);
+        engineBtn.addActionListener(this);
+
+        hintBtn = new JButton("Hint");
+        buttonsPanel.add(hintBtn);
+        hintBtn.addActionListener(this);
+
         frame.add(buttonsPanel,BorderLayout.PAGE_END);
         frame.setVisible(true);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -83,51 +107,178 @@ public class ChessController implements ChessDelegate, ActionListener{
     }
 
     public void movePiece(int fromCol, int fromRow, int toCol, int toRow){
-     chessModel.movePiece(fromCol,fromRow,toCol,toRow);
+     if (enginePlayer == chessModel.playerInTurn()) {
+         return;
+     }
+     if (networkPlayer != null && networkPlayer != chessModel.playerInTurn()) {
+         return;
+     }
+     if (!chessModel.movePiece(fromCol,fromRow,toCol,toRow)) {
+         return;
+     }
      chessBoardPanel.repaint();
      if (printWriter !=null){
          printWriter.println(fromCol+","+fromRow+","+toCol+","+toRow);
      }
+     if (enginePlayer == chessModel.playerInTurn()) {
+         startEngineMove();
+     }
 
     }
+
+    // the book named by -Dchess.book, or book.bin in the working directory, if there is one
+    private void openBook() {
+        var path = Path.of(System.getProperty("chess.book", "book.bin"));
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        try {
+            book = PolyglotBook.open(path);
+            engine.setBook(book);
+        } catch (IOException e1) {
+            e1.printStackTrace();
+        }
+    }
+
+    // a book move if there is one, otherwise a short search; shown in a dialog, never played
+    private void showHint() {
+        int bookMove = book == null ? Move.NONE : book.bestMove(chessModel.positionCopy());
+        if (bookMove != Move.NONE) {
+            JOptionPane.showMessageDialog(frame, "Book move: " + Move.toString(bookMove));
+            return;
+        }
+        hintPending = true;
+        updateHintButton();
+        long searchedHash = chessModel.hash();
+        engine.go(chessModel.positionCopy(), SearchLimits.moveTime(HINT_MILLIS), null, new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        hintPending = false;
+                        updateHintButton();
+                        // a hint for a position no longer on the board is no help
+                        if (move != Move.NONE && chessModel.hash() == searchedHash) {
+                            JOptionPane.showMessageDialog(frame, "Engine suggests: " + Move.toString(move));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // no hints while the engine is to move: the hint's search would queue behind the engine's,
+    // its clock already running
+    private void updateHintButton() {
+        hintBtn.setEnabled(!hintPending && enginePlayer != chessModel.playerInTurn());
+    }
+
+    // searches on the engine thread and plays the reply back on the EDT
+    private void startEngineMove() {
+        int search = ++engineSearch;
+        updateHintButton();
+        long searchedHash = chessModel.hash();
+        long startNanos = System.nanoTime();
+        var limits = SearchLimits.clock(engineClockMillis, ENGINE_INCREMENT_MILLIS);
+        engine.go(chessModel.positionCopy(), limits, null, new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+                long usedMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the board was reset or changed while the engine was thinking
+                        if (search != engineSearch || enginePlayer != chessModel.playerInTurn()
+                                || move == Move.NONE || chessModel.hash() != searchedHash
+                                || !chessModel.makeMove(move)) {
+                            return;
+                        }
+                        engineClockMillis = Math.max(0, engineClockMillis - usedMillis) + ENGINE_INCREMENT_MILLIS;
+                        chessBoardPanel.repaint();
+                        updateHintButton();
+                        if (printWriter != null) {
+                            int from = Move.from(move);
+                            int to = Move.to(move);
+                            printWriter.println(Bitboards.col(from) + "," + Bitboards.row(from) + ","
+                                    + Bitboards.col(to) + "," + Bitboards.row(to));
+                        }
+                    }
+                });
+            }
+        });
+    }
     private void receiveMove(Scanner scanner){
         while (scanner.hasNextLine()){
-            var moveStr = scanner.nextLine(); //"0,1,0,2"
+            var moveStr = scanner.nextLine().trim(); //"0,1,0,2"
             System.out.println("Chess move received:"+ moveStr);
+            if (moveStr.startsWith("color ")) {
+                Player player = moveStr.equals("color white") ? Player.WHITE : Player.BLACK;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        networkPlayer = player;
+                    }
+                });
+                continue;
+            }
+            if (moveStr.startsWith("error ") || moveStr.equals("resign")) {
+                continue;
+            }
 
-            var moveStrArr = moveStr.split(",") ;//["0","1","0","2"]
-            var fromCol = Integer.parseInt(moveStrArr[0]) ;
-            var fromRow = Integer.parseInt(moveStrArr[1]);
-            var toCol = Integer.parseInt(moveStrArr[2]);
-            var toRow = Integer.parseInt(moveStrArr[3]);
+            // what cannot be played is dropped without a word, as the server does for old boards
+            int[] squares = parseMove(moveStr);
+            if (squares == null) {
+                continue;
+            }
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
-                    chessModel.movePiece(fromCol,fromRow,toCol,toRow);
+                    // only the opponent's legal moves are taken, whatever the peer sends,
+                    // and none before the server has said which side is ours
+                    if (networkPlayer == null || networkPlayer == chessModel.playerInTurn()
+                            || !chessModel.movePiece(squares[0], squares[1], squares[2], squares[3])) {
+                        return;
+                    }
                     chessBoardPanel.repaint();
+                    if (enginePlayer == chessModel.playerInTurn()) {
+                        startEngineMove();
+                    }
                 }
             });
         }
     }
 
-    private void runSocketServer(){
-        Executors.newFixedThreadPool(1).execute(new Runnable() {
-            @Override
-            public void run() {
-                try{
-                    listener = new ServerSocket(PORT);
-                    System.out.println("server is listening on port"+PORT);
-
-                    socket = listener.accept();
-                    printWriter = new PrintWriter(socket.getOutputStream(),true);
-                    var scanner = new Scanner(socket.getInputStream());
-
-                    receiveMove(scanner);
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
+    // "fromCol,fromRow,toCol,toRow" with every coordinate on the board, or null
+    private static int[] parseMove(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 4) {
+            return null;
+        }
+        int[] values = new int[4];
+        for (int i = 0; i < 4; i++) {
+            try {
+                values[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException e) {
+                return null;
             }
-        });
+            if (values[i] < 0 || values[i] > 7) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    // hosts a game server in this process and joins its game like any other client;
+    // -Dchess.virtualThreads=true serves each socket on virtual threads instead of a selector
+    private void runSocketServer(){
+        try{
+            gameServer = GameServer.start(PORT, 1, Boolean.getBoolean("chess.virtualThreads"));
+            System.out.println("server is listening on port"+PORT);
+            runSocketClient();
+        } catch (IOException e1) {
+            e1.printStackTrace();
+        }
     }
 
     private void runSocketClient(){
@@ -136,6 +287,7 @@ public class ChessController implements ChessDelegate, ActionListener{
             System.out.println("client connected to port"+PORT);
             var scanner = new Scanner(socket.getInputStream());
             printWriter = new PrintWriter(socket.getOutputStream(),true);
+            printWriter.println("game 0");
 
             Executors.newFixedThreadPool(1).execute(new Runnable() {
                 @Override
@@ -153,11 +305,20 @@ public class ChessController implements ChessDelegate, ActionListener{
     public void actionPerformed(ActionEvent e) {
        // System.out.println(e.getSource());
         if(e.getSource() == resetBtn){
+            // the searches see the flag at their next node; their moves are then dropped as stale
+            engine.stop();
+            engineSearch++;
+            enginePlayer = null;
+            networkPlayer = null;
+            engineClockMillis = ENGINE_CLOCK_MILLIS;
+            engineBtn.setEnabled(true);
             chessModel.reset();
             chessBoardPanel.repaint();
+            updateHintButton();
             try {
-                if (listener !=null){
-                    listener.close();
+                if (gameServer !=null){
+                    gameServer.close();
+                    gameServer = null;
                 }
                 if(socket != null){
                 socket.close();
@@ -181,6 +342,15 @@ public class ChessController implements ChessDelegate, ActionListener{
             runSocketClient();
             JOptionPane.showMessageDialog(frame,"connected to port "+PORT);
         }
+        else if(e.getSource()== hintBtn){
+            showHint();
+        }
+        else if(e.getSource()== engineBtn){
+            // the engine takes over the side to move; the human plays the other one
+            engineBtn.setEnabled(false);
+            enginePlayer = chessModel.playerInTurn();
+            startEngineMove();
+        }
 
     }
 
@@ -1,66 +1,272 @@
 package com.package1.chess;
 
-import java.util.HashSet;
-import java.util.Set;
-
 public class ChessModel {
-    private Set<ChessPiece> piecesBox = new HashSet<ChessPiece>();
-    private Player playerInTurn = Player.WHITE;
+    private static final String[] IMAGE_NAMES = {
+            ChessConstants.wKing, ChessConstants.wQueen, ChessConstants.wBishop,
+            ChessConstants.wRook, ChessConstants.wKnight, ChessConstants.wPawn,
+            ChessConstants.bKing, ChessConstants.bQueen, ChessConstants.bBishop,
+            ChessConstants.bRook, ChessConstants.bKnight, ChessConstants.bPawn,
+    };
+
+    private final Position position = new Position();
+    // pieces the view holds on to, kept square-for-square in step with position.board
+    private final ChessPiece[] pieces = new ChessPiece[64];
+    // generated once per position, so checking the moves played against it is only a scan
+    private final MoveList legalMoves = new MoveList();
+    private boolean legalMovesCurrent;
+
     void reset(){
-        piecesBox.removeAll(piecesBox);
-        for (int i = 0; i < 2; i++) {
-            piecesBox.add(new ChessPiece(0+ i*7, 7, Player.BLACK, Rank.ROOK, ChessConstants.bRook));
-            piecesBox.add(new ChessPiece(0+ i*7, 0, Player.WHITE, Rank.ROOK, ChessConstants.wRook ));
+        position.setStartPosition();
+        legalMovesCurrent = false;
+        syncPieces();
+    }
 
-            piecesBox.add(new ChessPiece(1+ i*5, 7, Player.BLACK, Rank.KNIGHT, ChessConstants.bKnight));
-            piecesBox.add(new ChessPiece(1+ i*5, 0, Player.WHITE, Rank.KNIGHT, ChessConstants.wKnight));
+    /**
+     * Sets up the position described by {@code fen}; throws IllegalArgumentException, and keeps
+     * the current position, if it is malformed.
+     */
+    void setFen(String fen) {
+        var parsed = new Position();
+        parsed.setFen(fen);
+        legalMovesCurrent = false;
+        position.copyFrom(parsed);
+        syncPieces();
+    }
+
+    boolean movePiece(int fromCol, int fromRow, int toCol, int toRow){
+        if (!Bitboards.onBoard(fromCol, fromRow) || !Bitboards.onBoard(toCol, toRow)) {
+            return false;
+        }
+        int move = findLegalMove(Bitboards.square(fromCol, fromRow), Bitboards.square(toCol, toRow));
+        if (move == Move.NONE) {
+            return false;
+        }
+        playMove(move);
+        return true;
+    }
 
-            piecesBox.add(new ChessPiece(2+ i*3, 7, Player.BLACK, Rank.BISHOP, ChessConstants.bBishop));
-            piecesBox.add(new ChessPiece(2+ i*3, 0, Player.WHITE, Rank.BISHOP, ChessConstants.wBishop));
+    /** Plays a packed move, such as one chosen by the engine, if it is legal here. */
+    boolean makeMove(int move) {
+        updateLegalMoves();
+        if (!legalMoves.contains(move)) {
+            return false;
         }
-        for (int i = 0; i < 8; i++) {
-            piecesBox.add(new ChessPiece(i, 6, Player.BLACK, Rank.PAWN, ChessConstants.bPawn));
-            piecesBox.add(new ChessPiece(i, 1, Player.WHITE, Rank.PAWN, ChessConstants.wPawn));
+        playMove(move);
+        return true;
+    }
+
+    /** The legal move between the two squares, promoting to a queen, or {@link Move#NONE}. */
+    int findLegalMove(int from, int to) {
+        updateLegalMoves();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            if (Move.from(move) == from && Move.to(move) == to
+                    && (Move.promotion(move) == 0 || Move.promotion(move) == Position.QUEEN)) {
+                return move;
+            }
         }
-        piecesBox.add(new ChessPiece(3, 7, Player.BLACK, Rank.QUEEN, ChessConstants.bQueen));
-        piecesBox.add(new ChessPiece(3, 0, Player.WHITE, Rank.QUEEN, ChessConstants.wQueen ));
-        piecesBox.add(new ChessPiece(4, 7, Player.BLACK, Rank.KING, ChessConstants.bKing ));
-        piecesBox.add(new ChessPiece(4, 0, Player.WHITE, Rank.KING, ChessConstants.wKing));
+        return Move.NONE;
+    }
 
-        playerInTurn = Player.WHITE;
+    /** The legal move between the two squares promoting to {@code promotion}, 0 for none, or {@link Move#NONE}. */
+    int findLegalMove(int from, int to, int promotion) {
+        updateLegalMoves();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            if (Move.from(move) == from && Move.to(move) == to && Move.promotion(move) == promotion) {
+                return move;
+            }
+        }
+        return Move.NONE;
     }
 
-    void movePiece(int fromCol, int fromRow, int toCol, int toRow){
+    /** The legal move written in long algebraic notation, e.g. {@code e7e8q}, or {@link Move#NONE}. */
+    int findLegalMove(String uci) {
+        updateLegalMoves();
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            if (Move.toString(move).equals(uci)) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
 
-        ChessPiece candidate = pieceAt(fromCol, fromRow);
-        System.out.println(fromCol+", "+fromRow+", "+toCol+", "+toRow);
-        if (candidate == null || candidate.player != playerInTurn ||fromCol==toCol && fromRow==toRow) {
+    /**
+     * Plays a move written in standard algebraic notation, e.g. {@code Nbd7}, {@code exd8=Q+} or
+     * {@code O-O}, if it names exactly one legal move here, and returns it, or {@link Move#NONE}.
+     * Check and annotation marks are ignored.
+     */
+    int makeSanMove(String san) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        String text = san.substring(0, end).replace('0', 'O');
+        updateLegalMoves();
+        if (text.equals("O-O") || text.equals("O-O-O")) {
+            boolean kingside = text.length() == 3;
+            for (int i = 0; i < legalMoves.size(); i++) {
+                int move = legalMoves.get(i);
+                if (Move.flag(move) == Move.CASTLING && (Move.to(move) > Move.from(move)) == kingside) {
+                    playMove(move);
+                    return move;
+                }
+            }
+            return Move.NONE;
+        }
 
-            return;
+        int promotion = 0;
+        int promotionAt = Math.max(text.indexOf('='), 0);
+        if (promotionAt == 0 && end >= 3 && Character.isUpperCase(text.charAt(text.length() - 1))) {
+            promotionAt = text.length() - 1;
+        }
+        if (promotionAt > 0) {
+            int type = "KQBRNP".indexOf(Character.toUpperCase(text.charAt(text.length() - 1)));
+            if (type <= 0 || type == Position.PAWN) {
+                return Move.NONE;
+            }
+            promotion = type;
+            text = text.substring(0, promotionAt);
+        }
+        if (text.length() < 2) {
+            return Move.NONE;
+        }
+        int type = "KQBRN".indexOf(text.charAt(0));
+        int start = type >= 0 ? 1 : 0;
+        if (type < 0) {
+            type = Position.PAWN;
+        }
+        int toCol = text.charAt(text.length() - 2) - 'a';
+        int toRow = text.charAt(text.length() - 1) - '1';
+        if (!Bitboards.onBoard(toCol, toRow)) {
+            return Move.NONE;
+        }
+        int to = Bitboards.square(toCol, toRow);
+        int fromCol = -1;
+        int fromRow = -1;
+        for (int i = start; i < text.length() - 2; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromCol = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRow = c - '1';
+            } else if (c != 'x') {
+                return Move.NONE;
+            }
         }
 
-        ChessPiece target = pieceAt(toCol,toRow);
-if(target != null){
-    if(target.player == candidate.player){
-        return;
-    } else {
-        piecesBox.remove(target);
+        int found = Move.NONE;
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            int from = Move.from(move);
+            if (Move.to(move) != to || Move.promotion(move) != promotion
+                    || Position.typeOf(position.pieceAt(from)) != type
+                    || (fromCol >= 0 && Bitboards.col(from) != fromCol)
+                    || (fromRow >= 0 && Bitboards.row(from) != fromRow)) {
+                continue;
+            }
+            if (found != Move.NONE) {
+                return Move.NONE;
+            }
+            found = move;
+        }
+        if (found == Move.NONE) {
+            return Move.NONE;
+        }
+        playMove(found);
+        return found;
     }
-}
-        candidate.col = toCol;
-        candidate.row = toRow;
-        //System.out.println(piecesBox.size());
-        playerInTurn = playerInTurn ==Player.WHITE? Player.BLACK:Player.WHITE;
+
+    /** True when the side to move has no legal move, that is when it is checkmated or stalemated. */
+    boolean gameOver() {
+        updateLegalMoves();
+        return legalMoves.size() == 0;
+    }
+
+    /** The current position's result from {@code bitbases}, as {@link Bitbases#probe} gives it. */
+    int probe(Bitbases bitbases) {
+        return bitbases.probe(position);
+    }
+
+    /** The current position's key in the Polyglot book format. */
+    long polyglotKey() {
+        return PolyglotKeys.key(position);
+    }
+
+    private void updateLegalMoves() {
+        if (!legalMovesCurrent) {
+            MoveGenerator.generateLegal(position, legalMoves);
+            legalMovesCurrent = true;
+        }
+    }
+
+    private void playMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        position.makeMove(move);
+        legalMovesCurrent = false;
+
+        ChessPiece moving = pieces[from];
+        pieces[from] = null;
+        if (Move.flag(move) == Move.EN_PASSANT) {
+            pieces[to ^ 8] = null;
+        } else if (Move.flag(move) == Move.CASTLING) {
+            int rookFrom = to > from ? to + 1 : to - 2;
+            int rookTo = to > from ? to - 1 : to + 1;
+            placePiece(pieces[rookFrom], rookTo);
+            pieces[rookFrom] = null;
+        } else if (Move.promotion(move) != 0) {
+            moving = newPiece(position.pieceAt(to), to);
+        }
+        placePiece(moving, to);
+    }
+
+    private void placePiece(ChessPiece piece, int square) {
+        piece.col = Bitboards.col(square);
+        piece.row = Bitboards.row(square);
+        pieces[square] = piece;
+    }
+
+    /** A detached copy of the current position, history included, for searching off this thread. */
+    Position positionCopy() {
+        var copy = new Position();
+        copy.copyFrom(position);
+        return copy;
+    }
+
+    String toFen() {
+        return position.toFen();
+    }
+
+    /** Zobrist key of the current position, kept up to date move by move. */
+    long hash() {
+        return position.hash;
+    }
+
+    Player playerInTurn() {
+        return position.sideToMove == Position.WHITE ? Player.WHITE : Player.BLACK;
     }
 
     ChessPiece pieceAt(int col, int row) {
-        for (ChessPiece chessPiece:piecesBox){
-            if(chessPiece.col== col && chessPiece.row == row){
-                return chessPiece;
-            }
+        if (!Bitboards.onBoard(col, row)) {
+            return null;
         }
-        return null;
+        return pieces[Bitboards.square(col, row)];
     }
+
+    private void syncPieces() {
+        for (int square = 0; square < 64; square++) {
+            int piece = position.pieceAt(square);
+            pieces[square] = piece == Position.NO_PIECE ? null : newPiece(piece, square);
+        }
+    }
+
+    private static ChessPiece newPiece(int piece, int square) {
+        return new ChessPiece(Bitboards.col(square), Bitboards.row(square),
+                Position.playerOf(piece), Position.rankOf(piece), IMAGE_NAMES[piece]);
+    }
+
     public String toString() {
         String desc = "";
 for(int row=7;row>=0; row--) {
@@ -100,4 +306,4 @@ desc += " 0 1 2 3 4 5 6 7";
 
         return desc;
     }
-}
\ No newline at end of file
+}
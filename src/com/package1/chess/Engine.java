@@ -0,0 +1,248 @@
+package com.package1.chess;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs searches on background threads so callers, in particular the Swing event thread, never
+ * block while the engine thinks.
+ *
+ * With more than one thread the engine uses Lazy SMP: helper threads search the same root as
+ * the main thread at staggered depths and share its transposition table, and the main thread's
+ * move is played. Helpers stop as soon as the main search does.
+ */
+final class Engine {
+    /** Receives the chosen move on the search thread. */
+    interface BestMoveListener {
+        void onBestMove(int move);
+    }
+
+    static final int DEFAULT_HASH_MB = 64;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(daemonThreads("engine-main"));
+    private ExecutorService helperPool;
+    private TranspositionTable tt;
+    private final SearchOptions options;
+    private Search[] searches;
+    // the stop flags of every search started and not yet finished, queued ones included
+    private final Set<AtomicBoolean> outstanding = ConcurrentHashMap.newKeySet();
+    private volatile TimeManager currentTime;
+    private volatile PolyglotBook book;
+
+    Engine() {
+        this(DEFAULT_HASH_MB, 1);
+    }
+
+    Engine(int hashMegabytes, int threads) {
+        this(hashMegabytes, threads, new SearchOptions());
+    }
+
+    Engine(int hashMegabytes, int threads, SearchOptions options) {
+        this.options = options;
+        tt = new TranspositionTable(hashMegabytes);
+        setThreads(threads);
+    }
+
+    /** Changes the number of search threads. Only call while no search is running. */
+    void setThreads(int threads) {
+        threads = Math.max(1, threads);
+        if (helperPool != null) {
+            helperPool.shutdownNow();
+        }
+        helperPool = threads > 1 ? Executors.newFixedThreadPool(threads - 1, daemonThreads("engine-helper")) : null;
+        searches = new Search[threads];
+        for (int i = 0; i < threads; i++) {
+            searches[i] = new Search(tt, options, i);
+        }
+    }
+
+    int threads() {
+        return searches.length;
+    }
+
+    /**
+     * Plays from {@code book} in games, that is in searches on a clock or a move time, before
+     * searching at all. Null turns the book off. The book may be shared with other engines.
+     */
+    void setBook(PolyglotBook book) {
+        this.book = book;
+    }
+
+    /** Replaces the transposition table with an empty one of the given size. Only call while no search is running. */
+    void setHashSize(int megabytes) {
+        tt = new TranspositionTable(megabytes);
+        setThreads(searches.length);
+    }
+
+    /** The switches shared by all search threads; changes apply from the next search. */
+    SearchOptions options() {
+        return options;
+    }
+
+    /**
+     * Starts searching a copy of {@code root} once any search already running has finished. The
+     * clock for {@code limits} starts now, not when the search gets going. {@code onBestMove}
+     * always hears back: should the search fail, with any legal move, and with
+     * {@link Move#NONE} only when there is none.
+     */
+    Future<?> go(Position root, SearchLimits limits, SearchListener listener, BestMoveListener onBestMove) {
+        var position = new Position();
+        position.copyFrom(root);
+        var fallback = new Position();
+        fallback.copyFrom(root);
+        var stop = new AtomicBoolean();
+        var time = new TimeManager(limits, System.nanoTime());
+        outstanding.add(stop);
+        currentTime = time;
+        Search[] threads = searches;
+        ExecutorService helpers = helperPool;
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                int move;
+                try {
+                    move = bookMove(position, limits);
+                    if (move == Move.NONE) {
+                        move = searchAll(threads, helpers, position, limits, time, listener, stop);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    move = Move.NONE;
+                }
+                outstanding.remove(stop);
+                if (move == Move.NONE) {
+                    move = anyLegalMove(fallback);
+                }
+                onBestMove.onBestMove(move);
+            }
+        });
+    }
+
+    /**
+     * Stops every search started so far, including those still queued behind another; each still
+     * delivers its best move so far. The search threads read the flag at every node, so they
+     * unwind at once.
+     */
+    void stop() {
+        for (AtomicBoolean stop : outstanding) {
+            stop.set(true);
+        }
+    }
+
+    /** Starts the clock of the most recently started search, if it was a ponder search. */
+    void ponderHit() {
+        TimeManager time = currentTime;
+        if (time != null) {
+            time.ponderHit(System.nanoTime());
+        }
+    }
+
+    /** Pawn hash hits over probes, summed over all search threads since they were created. */
+    double pawnHashHitRate() {
+        long probes = 0;
+        long hits = 0;
+        for (Search search : searches) {
+            probes += search.pawnTable().probes();
+            hits += search.pawnTable().hits();
+        }
+        return probes == 0 ? 0.0 : (double) hits / probes;
+    }
+
+    /** Share of beta cutoffs caused by the first move searched, over all search threads since they were created. */
+    double firstMoveCutoffRate() {
+        long cutoffs = 0;
+        long first = 0;
+        for (Search search : searches) {
+            cutoffs += search.cutoffs();
+            first += search.firstMoveCutoffs();
+        }
+        return cutoffs == 0 ? 0.0 : (double) first / cutoffs;
+    }
+
+    void clearHash() {
+        tt.clear();
+    }
+
+    /** Per-mille of the transposition table used by the current search, as reported to UCI. */
+    int hashfull() {
+        return tt.hashfull();
+    }
+
+    private int bookMove(Position position, SearchLimits limits) {
+        PolyglotBook book = this.book;
+        if (book == null || limits.ponder || (limits.timeMillis == 0 && limits.moveTimeMillis == 0)) {
+            return Move.NONE;
+        }
+        return book.pickMove(position);
+    }
+
+    private int searchAll(Search[] threads, ExecutorService helpers, Position position, SearchLimits limits,
+                          TimeManager time, SearchListener listener, AtomicBoolean stop) {
+        tt.newSearch();
+        var helperLimits = SearchLimits.depth(limits.depth);
+        var running = new Future<?>[threads.length];
+        for (int i = 1; i < threads.length; i++) {
+            Search helper = threads[i];
+            running[i] = helpers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    helper.run(position, helperLimits, null, null, stop);
+                }
+            });
+        }
+
+        SearchListener totals = listener == null ? null : new SearchListener() {
+            @Override
+            public void onIteration(int depth, int score, long nodes, long elapsedMillis, int[] pv, int pvLength) {
+                listener.onIteration(depth, score, totalNodes(threads), elapsedMillis, pv, pvLength);
+            }
+        };
+        try {
+            return threads[0].run(position, limits, time, totals, stop);
+        } finally {
+            stop.set(true);
+            for (int i = 1; i < threads.length; i++) {
+                try {
+                    running[i].get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static int anyLegalMove(Position position) {
+        var moves = new MoveList();
+        MoveGenerator.generateLegal(position, moves);
+        return moves.size() == 0 ? Move.NONE : moves.get(0);
+    }
+
+    private static long totalNodes(Search[] threads) {
+        long nodes = 0;
+        for (Search search : threads) {
+            nodes += search.nodes();
+        }
+        return nodes;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package com.package1.chess;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The {@link GameServer}'s binary protocol, version 1.
+ *
+ * A client that speaks it opens with three bytes: {@link #MAGIC} and the lowest and highest
+ * versions it knows. The server answers with {@link #MAGIC} and the version it picked, or 0 before
+ * hanging up if there is none. Any other first byte means the line protocol, and a client that
+ * sends nothing at all for a while is taken for an old board that only knows move lines.
+ *
+ * After the handshake everything is a frame: a big-endian 16-bit length of the rest, a type byte
+ * and the type's fields, all big-endian. Moves are 16 bits: from and to square in 6 bits each and
+ * the promotion in the next 3 as a {@link Position} type; castling is the king's move. Sequence
+ * numbers count the plies played in the game, so a move carries the number of moves before it.
+ */
+final class GameProtocol {
+    static final int MAGIC = 0xC5;
+    static final int VERSION = 1;
+    /** Longer frames are not sent, so a longer length means the stream is corrupt. */
+    static final int MAX_FRAME_BYTES = 128;
+
+    /** Client to server: int game id. */
+    static final int JOIN = 1;
+    /** Server to client: int game id, byte color, short plies played so far. */
+    static final int JOINED = 2;
+    /** Both ways: int game id, short sequence, short move, int mover's clock in ms, or -1 if unknown. */
+    static final int MOVE = 3;
+    /** Server to client: int game id, short sequence the server expects, byte error code. */
+    static final int ERROR = 4;
+    /** Both ways: int game id. The game is over and takes no more moves. */
+    static final int RESIGN = 5;
+    /** Client to server: int token, echoed back in a PONG. */
+    static final int PING = 6;
+    /** Server to client: int token. */
+    static final int PONG = 7;
+    /** Client to server: int game id, to follow the game without playing. */
+    static final int WATCH = 8;
+    /**
+     * Server to client: int game id, short plies played, byte 1 if the game is over, and the
+     * position's FEN in ASCII to the end of the frame. Spectators get one on joining and whenever
+     * they fell too far behind to be sent every move.
+     */
+    static final int SNAPSHOT = 9;
+
+    static final int BAD_FRAME = 1;
+    static final int NOT_JOINED = 2;
+    static final int GAME_FULL = 3;
+    static final int WRONG_GAME = 4;
+    static final int OUT_OF_SEQUENCE = 5;
+    static final int NOT_YOUR_TURN = 6;
+    static final int ILLEGAL_MOVE = 7;
+    static final int GAME_OVER = 8;
+    static final int NO_SUCH_GAME = 9;
+
+    private GameProtocol() {
+    }
+
+    /** {@code move} in 16 bits. */
+    static int toWire(int move) {
+        return Move.from(move) | Move.to(move) << 6 | Move.promotion(move) << 12;
+    }
+
+    static int wireFrom(int wire) {
+        return wire & 0x3F;
+    }
+
+    static int wireTo(int wire) {
+        return (wire >>> 6) & 0x3F;
+    }
+
+    static int wirePromotion(int wire) {
+        return (wire >>> 12) & 7;
+    }
+
+    static void putJoin(ByteBuffer buffer, int gameId) {
+        buffer.putShort((short) 5).put((byte) JOIN).putInt(gameId);
+    }
+
+    static void putJoined(ByteBuffer buffer, int gameId, int color, int plies) {
+        buffer.putShort((short) 8).put((byte) JOINED).putInt(gameId).put((byte) color).putShort((short) plies);
+    }
+
+    static void putMove(ByteBuffer buffer, int gameId, int sequence, int wireMove, int clockMillis) {
+        buffer.putShort((short) 13).put((byte) MOVE).putInt(gameId).putShort((short) sequence)
+                .putShort((short) wireMove).putInt(clockMillis);
+    }
+
+    static void putError(ByteBuffer buffer, int gameId, int sequence, int code) {
+        buffer.putShort((short) 8).put((byte) ERROR).putInt(gameId).putShort((short) sequence).put((byte) code);
+    }
+
+    static void putResign(ByteBuffer buffer, int gameId) {
+        buffer.putShort((short) 5).put((byte) RESIGN).putInt(gameId);
+    }
+
+    static void putWatch(ByteBuffer buffer, int gameId) {
+        buffer.putShort((short) 5).put((byte) WATCH).putInt(gameId);
+    }
+
+    static void putSnapshot(ByteBuffer buffer, int gameId, int plies, boolean over, String fen) {
+        byte[] text = fen.getBytes(StandardCharsets.US_ASCII);
+        buffer.putShort((short) (8 + text.length)).put((byte) SNAPSHOT).putInt(gameId).putShort((short) plies)
+                .put((byte) (over ? 1 : 0)).put(text);
+    }
+
+    static void putPing(ByteBuffer buffer, int token) {
+        buffer.putShort((short) 5).put((byte) PING).putInt(token);
+    }
+
+    static void putPong(ByteBuffer buffer, int token) {
+        buffer.putShort((short) 5).put((byte) PONG).putInt(token);
+    }
+}
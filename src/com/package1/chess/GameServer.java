@@ -0,0 +1,1325 @@
+package com.package1.chess;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A headless server for many games at once.
+ *
+ * A few event loops, each a thread with its own selector, own the games. A game, its
+ * {@link ChessModel} and its players' state are only touched by the loop its id maps to, so
+ * nothing about a game is locked. Sockets are served in one of two ways:
+ * <ul>
+ * <li>non-blocking, by the loops themselves: the first loop accepts and deals connections out in
+ * turn, and once a connection names its game it moves to the loop that owns that game;</li>
+ * <li>with {@code virtualThreads}, each socket has a virtual thread running a plain blocking read
+ * loop, which queues what it reads as tasks for the owning loop, and another one writing what
+ * the loop queues for it. Idle players then cost two parked virtual threads and no platform
+ * thread. Virtual threads blocked while pinned to their carrier are reported on stderr.</li>
+ * </ul>
+ *
+ * Clients speak the framed {@link GameProtocol} or the board's line protocol: {@code game <id>},
+ * answered {@code color white} or {@code color black}, then moves both ways as
+ * {@code fromCol,fromRow,toCol,toRow} lines and {@code error} lines for what is refused. Old
+ * boards, which send no greeting, join game 0 and are only ever sent moves. Players of either
+ * protocol can meet in one game. The first to join plays white; the server keeps each game's
+ * position and moves, passes legal moves on to the opponent and replays the game so far to
+ * whoever joins.
+ *
+ * Anyone may also watch a game, with {@code watch <id>} or a WATCH frame: a spectator is sent a
+ * snapshot of the position, as {@code snapshot <plies> <fen>} or a SNAPSHOT frame, and then every
+ * move as it is played. Each move is encoded once for all
+ * of a game's spectators and their queues share the bytes. A spectator that falls too far behind
+ * has its backlog dropped and is sent a fresh snapshot once it has caught up; one that keeps
+ * falling behind is disconnected.
+ */
+final class GameServer implements AutoCloseable {
+    static final int DEFAULT_PORT = 50000;
+    /** Also the longest line a client may send. */
+    private static final int READ_BUFFER_BYTES = 4096;
+    /** Bytes a client may fall behind in reading before it is disconnected. */
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+    /** Bytes a spectator may fall behind before its backlog is dropped for a snapshot. */
+    private static final int SPECTATOR_MAX_PENDING_BYTES = 16 * 1024;
+    /** Snapshots a spectator may need for falling behind before it is disconnected instead. */
+    private static final int MAX_RESYNCS = 3;
+    /** Room for bursts of connections, as when a club's players all arrive for a round. */
+    private static final int ACCEPT_BACKLOG = 1024;
+    /** How long a silent client has to greet before it is taken for an old board. */
+    private static final long HANDSHAKE_MILLIS = 1000;
+    /** Pinned virtual threads are reported when blocked at least this long. */
+    private static final long PINNED_REPORT_MILLIS = 5;
+
+    // a connection's protocol
+    private static final int UNKNOWN = 0;
+    private static final int LEGACY = 1;
+    private static final int TEXT = 2;
+    private static final int BINARY = 3;
+    /** Line protocol wording of the {@link GameProtocol} error codes. */
+    private static final String[] ERRORS = {"", "bad request", "not joined", "game full", "wrong game",
+            "out of sequence", "not your turn", "illegal move", "game over", "no such game"};
+    /** Tells a writer thread its client is closed. */
+    private static final ByteBuffer END_OF_OUTPUT = ByteBuffer.allocate(0);
+
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final Thread[] threads;
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private final Set<BlockingClient> blockingClients = ConcurrentHashMap.newKeySet();
+    private RecordingStream pinning;
+    private Thread acceptor;
+    // only used by the accepting thread
+    private int nextLoop;
+
+    private GameServer(ServerSocketChannel server, int loopCount, boolean virtualThreads) throws IOException {
+        this.server = server;
+        loops = new EventLoop[loopCount];
+        threads = new Thread[loopCount];
+        try {
+            for (int i = 0; i < loopCount; i++) {
+                loops[i] = new EventLoop();
+            }
+            if (!virtualThreads) {
+                server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.close();
+                }
+            }
+            throw e;
+        }
+        for (int i = 0; i < loopCount; i++) {
+            threads[i] = new Thread(loops[i], "game-loop-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        if (virtualThreads) {
+            pinning = watchPinning();
+            acceptor = Thread.ofVirtual().name("game-acceptor").start(new Runnable() {
+                @Override
+                public void run() {
+                    acceptBlocking();
+                }
+            });
+        }
+    }
+
+    /** Listens on {@code port}, 0 for any free one, with {@code loopCount} event loops. */
+    static GameServer start(int port, int loopCount) throws IOException {
+        return start(port, loopCount, false);
+    }
+
+    /** As {@link #start(int, int)}, with a virtual thread per socket if {@code virtualThreads}. */
+    static GameServer start(int port, int loopCount, boolean virtualThreads) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            server.configureBlocking(virtualThreads);
+            return new GameServer(server, Math.max(1, loopCount), virtualThreads);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /** Times a virtual thread blocked while pinned to its carrier since the server started. */
+    long pinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    /** Waits until the server is closed. */
+    void awaitClose() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /** Stops listening and stops the loops, disconnecting every client. */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (EventLoop loop : loops) {
+            loop.closed = true;
+            loop.selector.wakeup();
+        }
+        try {
+            awaitClose();
+            if (acceptor != null) {
+                acceptor.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // with the loops gone, closing the sockets is all that is left to do
+        for (BlockingClient client : blockingClients) {
+            client.channel.close();
+        }
+        if (pinning != null) {
+            pinning.close();
+        }
+    }
+
+    /**
+     * {@code server [port] [loops] [virtual]}: serves until killed, with one loop per core by
+     * default, and a virtual thread per socket if {@code virtual} is given.
+     */
+    static int run(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int loopCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        boolean virtual = args.length > 2 && args[2].equals("virtual");
+        GameServer server = start(port, loopCount, virtual);
+        System.out.println("listening on port " + server.port() + " with " + loopCount + " event loops"
+                + (virtual ? " and a virtual thread per socket" : ""));
+        server.awaitClose();
+        return 0;
+    }
+
+    private EventLoop owner(int gameId) {
+        return loops[Math.floorMod(gameId, loops.length)];
+    }
+
+    private EventLoop nextLoop() {
+        EventLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    private void acceptBlocking() {
+        while (server.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            var client = new BlockingClient(channel, nextLoop());
+            blockingClients.add(client);
+            Thread.ofVirtual().name("game-writer").start(new Runnable() {
+                @Override
+                public void run() {
+                    client.writeLoop();
+                }
+            });
+            Thread.ofVirtual().name("game-reader").start(new Runnable() {
+                @Override
+                public void run() {
+                    client.readLoop();
+                }
+            });
+        }
+    }
+
+    // the JDK records jdk.VirtualThreadPinned when a virtual thread blocks without releasing its carrier
+    private RecordingStream watchPinning() {
+        var stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(PINNED_REPORT_MILLIS)).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", new Consumer<RecordedEvent>() {
+            @Override
+            public void accept(RecordedEvent event) {
+                pinnedEvents.incrementAndGet();
+                var where = new StringBuilder();
+                if (event.getStackTrace() != null) {
+                    for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                        if (frame.isJavaFrame()) {
+                            where.append("\n    at ").append(frame.getMethod().getType().getName()).append('.')
+                                    .append(frame.getMethod().getName()).append(':').append(frame.getLineNumber());
+                        }
+                    }
+                }
+                System.err.println("virtual thread pinned for " + event.getDuration().toMillis() + " ms" + where);
+            }
+        });
+        stream.startAsync();
+        return stream;
+    }
+
+    /** {@code move} in the line protocol. */
+    private static String moveLine(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        return Bitboards.col(from) + "," + Bitboards.row(from) + "," + Bitboards.col(to) + "," + Bitboards.row(to);
+    }
+
+    /** One selector thread and the games and connections it owns. */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        /** Scratch for encoding outgoing frames; only this loop's thread uses it. */
+        final ByteBuffer frame = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final HashMap<Integer, Game> games = new HashMap<>();
+        // connections that have not said which protocol they speak, oldest first
+        private final ArrayDeque<Connection> unidentified = new ArrayDeque<>();
+        volatile boolean closed;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /** Runs {@code task} on this loop's thread. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /** Takes over {@code connection}, which no other loop may touch any more. */
+        void adopt(Connection connection) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    register(connection);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(unidentified.isEmpty() ? 0 : HANDSHAKE_MILLIS / 4);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                accept();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                            continue;
+                        }
+                        var connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                    expireHandshakes();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                nextLoop().adopt(new Connection(channel));
+            }
+        }
+
+        private void register(Connection connection) {
+            connection.loop = this;
+            try {
+                connection.key = connection.channel.register(selector, connection.interest(), connection);
+            } catch (ClosedChannelException e) {
+                connection.close();
+                return;
+            }
+            if (connection.mode == UNKNOWN) {
+                unidentified.add(connection);
+            }
+            if (connection.joining >= 0) {
+                connection.enter(connection.joining, connection.watchOnArrival);
+            }
+            connection.handleInput();
+        }
+
+        // an old board waits for its opponent's move without sending anything, so silence means one
+        private void expireHandshakes() {
+            long now = System.nanoTime();
+            Connection connection;
+            while ((connection = unidentified.peek()) != null) {
+                boolean waiting = connection.mode == UNKNOWN && !connection.closed;
+                if (waiting && now - connection.acceptedNanos < HANDSHAKE_MILLIS * 1_000_000L) {
+                    break;
+                }
+                unidentified.poll();
+                if (waiting) {
+                    connection.joinLegacy();
+                    if (connection.movingTo != null) {
+                        connection.handOff();
+                    }
+                }
+            }
+        }
+    }
+
+    /** A game, its players and spectators, owned by one loop. */
+    private static final class Game {
+        final int id;
+        final ChessModel model = new ChessModel();
+        final Client[] players = new Client[2];
+        final ArrayList<Client> spectators = new ArrayList<>();
+        /** Plies played, which is the sequence number of the next move. */
+        int plies;
+        int[] moves = new int[128];
+        boolean over;
+
+        Game(int id) {
+            this.id = id;
+            model.reset();
+        }
+
+        boolean abandoned() {
+            return players[Position.WHITE] == null && players[Position.BLACK] == null && spectators.isEmpty();
+        }
+    }
+
+    /**
+     * A player as its game sees it, whatever carries its bytes. Everything here runs on the loop
+     * that owns the client, which is the loop owning its game once it has joined one.
+     */
+    private abstract class Client {
+        EventLoop loop;
+        int mode = UNKNOWN;
+        boolean closed;
+        Game game;
+        int color;
+        /** The game this client is a spectator of. */
+        Game watching;
+        /** Set while a spectator's backlog drains before it is sent a snapshot; read by writer threads. */
+        volatile boolean resyncing;
+        int resyncs;
+
+        /** Sends {@code buffer}'s remaining bytes, or a copy of them later. */
+        abstract void send(ByteBuffer buffer);
+
+        /**
+         * Sends {@code view}'s remaining bytes without copying them. The view is this client's own,
+         * but the bytes may be shared and are never written to.
+         */
+        abstract void sendView(ByteBuffer view);
+
+        /** Bytes sent but not yet written to the socket. */
+        abstract int pendingBytes();
+
+        /** Forgets what is queued for the socket, except for a frame already partly written. */
+        abstract void dropBacklog();
+
+        /**
+         * Joins or watches game {@code id} here, or starts moving to the loop that owns it to do it
+         * there.
+         */
+        abstract void route(int id, boolean watch);
+
+        abstract void close();
+
+        void enter(int id, boolean watch) {
+            if (watch) {
+                watch(id);
+            } else {
+                join(id);
+            }
+        }
+
+        void join(int id) {
+            Game g = loop.games.get(id);
+            if (g == null) {
+                g = new Game(id);
+                loop.games.put(id, g);
+            }
+            if (g.players[Position.WHITE] == null) {
+                color = Position.WHITE;
+            } else if (g.players[Position.BLACK] == null) {
+                color = Position.BLACK;
+            } else {
+                sendError(GameProtocol.GAME_FULL);
+                close();
+                return;
+            }
+            g.players[color] = this;
+            game = g;
+            if (mode == BINARY) {
+                GameProtocol.putJoined(frame(), id, color, g.plies);
+                sendFrame();
+            } else if (mode == TEXT) {
+                sendLine(color == Position.WHITE ? "color white" : "color black");
+            }
+            // a player coming back, or an old board that joined late, catches up
+            for (int i = 0; i < g.plies; i++) {
+                sendMove(i, g.moves[i], -1);
+            }
+        }
+
+        void watch(int id) {
+            Game g = loop.games.get(id);
+            if (g == null) {
+                sendError(GameProtocol.NO_SUCH_GAME);
+                return;
+            }
+            g.spectators.add(this);
+            watching = g;
+            sendSnapshot();
+        }
+
+        void handleJoinFrame(int id, boolean watch) {
+            if (game != null || watching != null) {
+                sendError(GameProtocol.BAD_FRAME);
+                return;
+            }
+            route(id, watch);
+        }
+
+        void handleMoveFrame(int gameId, int sequence, int wire, int clockMillis) {
+            if (game != null && gameId != game.id) {
+                sendError(GameProtocol.WRONG_GAME);
+            } else if (game != null && sequence != (game.plies & 0xFFFF)) {
+                sendError(GameProtocol.OUT_OF_SEQUENCE);
+            } else {
+                handleMove(GameProtocol.wireFrom(wire), GameProtocol.wireTo(wire), GameProtocol.wirePromotion(wire),
+                        clockMillis);
+            }
+        }
+
+        void handleResignFrame(int gameId) {
+            if (game != null && gameId != game.id) {
+                sendError(GameProtocol.WRONG_GAME);
+            } else {
+                resign();
+            }
+        }
+
+        void ping(int token) {
+            GameProtocol.putPong(frame(), token);
+            sendFrame();
+        }
+
+        /**
+         * The line-protocol greeting, {@code game <id>} or {@code watch <id>}; anything else ends the
+         * connection.
+         */
+        void handleGreeting(String line) {
+            boolean watch = line.startsWith("watch ");
+            if (!watch && !line.startsWith("game ")) {
+                sendError(GameProtocol.NOT_JOINED);
+                close();
+                return;
+            }
+            try {
+                route(Integer.parseInt(line.substring(line.indexOf(' ') + 1).trim()), watch);
+            } catch (NumberFormatException e) {
+                sendError(GameProtocol.BAD_FRAME);
+                close();
+            }
+        }
+
+        /** A line after the greeting: a move or {@code resign}. */
+        void handleLine(String line) {
+            if (line.equals("resign")) {
+                resign();
+                return;
+            }
+            String[] parts = line.split(",");
+            try {
+                if (parts.length == 4) {
+                    int fromCol = Integer.parseInt(parts[0].trim());
+                    int fromRow = Integer.parseInt(parts[1].trim());
+                    int toCol = Integer.parseInt(parts[2].trim());
+                    int toRow = Integer.parseInt(parts[3].trim());
+                    if (Bitboards.onBoard(fromCol, fromRow) && Bitboards.onBoard(toCol, toRow)) {
+                        // lines cannot name a promotion; the board always makes a queen
+                        handleMove(Bitboards.square(fromCol, fromRow), Bitboards.square(toCol, toRow), -1, -1);
+                    } else {
+                        sendError(GameProtocol.ILLEGAL_MOVE);
+                    }
+                    return;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            sendError(GameProtocol.BAD_FRAME);
+        }
+
+        // promotion is a Position type, 0 for none, or -1 for a queen where one is possible
+        void handleMove(int from, int to, int promotion, int clockMillis) {
+            if (game == null) {
+                sendError(GameProtocol.NOT_JOINED);
+                return;
+            }
+            if (game.over) {
+                sendError(GameProtocol.GAME_OVER);
+                return;
+            }
+            ChessModel model = game.model;
+            if (model.playerInTurn() != (color == Position.WHITE ? Player.WHITE : Player.BLACK)) {
+                sendError(GameProtocol.NOT_YOUR_TURN);
+                return;
+            }
+            int move = promotion < 0 ? model.findLegalMove(from, to) : model.findLegalMove(from, to, promotion);
+            if (move == Move.NONE) {
+                sendError(GameProtocol.ILLEGAL_MOVE);
+                return;
+            }
+            model.makeMove(move);
+            if (game.plies == game.moves.length) {
+                game.moves = Arrays.copyOf(game.moves, game.plies * 2);
+            }
+            game.moves[game.plies] = move;
+            int sequence = game.plies++;
+            // mate and stalemate end the game as a resignation does, so snapshots report it
+            game.over = model.gameOver();
+            Client opponent = game.players[color ^ 1];
+            if (opponent != null) {
+                opponent.sendMove(sequence, move, clockMillis);
+            }
+            if (!game.spectators.isEmpty()) {
+                GameProtocol.putMove(frame(), game.id, sequence, GameProtocol.toWire(move), clockMillis);
+                broadcast(game, sharedFrame(), watchedIn(game, TEXT) ? sharedLine(moveLine(move)) : null);
+            }
+        }
+
+        void resign() {
+            if (game == null) {
+                sendError(GameProtocol.NOT_JOINED);
+                return;
+            }
+            if (game.over) {
+                sendError(GameProtocol.GAME_OVER);
+                return;
+            }
+            game.over = true;
+            Client opponent = game.players[color ^ 1];
+            if (opponent != null && opponent.mode == BINARY) {
+                GameProtocol.putResign(opponent.frame(), game.id);
+                opponent.sendFrame();
+            } else if (opponent != null && opponent.mode == TEXT) {
+                opponent.sendLine("resign");
+            }
+            if (!game.spectators.isEmpty()) {
+                GameProtocol.putResign(frame(), game.id);
+                broadcast(game, sharedFrame(), watchedIn(game, TEXT) ? sharedLine("resign") : null);
+            }
+        }
+
+        void sendMove(int sequence, int move, int clockMillis) {
+            if (mode == BINARY) {
+                GameProtocol.putMove(frame(), game.id, sequence, GameProtocol.toWire(move), clockMillis);
+                sendFrame();
+            } else {
+                sendLine(moveLine(move));
+            }
+        }
+
+        void sendSnapshot() {
+            String fen = watching.model.toFen();
+            if (mode == BINARY) {
+                GameProtocol.putSnapshot(frame(), watching.id, watching.plies, watching.over, fen);
+                sendFrame();
+            } else {
+                sendLine("snapshot " + watching.plies + " " + fen);
+            }
+        }
+
+        boolean watchedIn(Game g, int mode) {
+            for (Client spectator : g.spectators) {
+                if (spectator.mode == mode) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // spectators speak one protocol or the other, and each gets a view of the one copy of its
+        // bytes; line is null when no spectator speaks text
+        void broadcast(Game g, ByteBuffer frame, ByteBuffer line) {
+            // backwards, as a spectator that is dropped leaves the list
+            for (int i = g.spectators.size() - 1; i >= 0; i--) {
+                Client spectator = g.spectators.get(i);
+                spectator.sendShared(spectator.mode == BINARY ? frame : line);
+            }
+        }
+
+        void sendShared(ByteBuffer shared) {
+            if (closed || resyncing) {
+                return;
+            }
+            if (pendingBytes() + shared.remaining() > SPECTATOR_MAX_PENDING_BYTES) {
+                resync();
+                return;
+            }
+            sendView(shared.duplicate());
+        }
+
+        // the moves it has missed are no use to a spectator once it has the position they led to
+        private void resync() {
+            if (++resyncs > MAX_RESYNCS) {
+                close();
+                return;
+            }
+            resyncing = true;
+            dropBacklog();
+            catchUp();
+        }
+
+        /** Sends a resyncing spectator its snapshot once nothing else is queued before it. */
+        void catchUp() {
+            if (resyncing && !closed && pendingBytes() == 0) {
+                resyncing = false;
+                sendSnapshot();
+            }
+        }
+
+        // old boards would take anything but a move for a malformed move, so they are told nothing
+        void sendError(int code) {
+            if (mode == BINARY) {
+                GameProtocol.putError(frame(), game == null ? 0 : game.id, game == null ? 0 : game.plies, code);
+                sendFrame();
+            } else if (mode == TEXT) {
+                sendLine("error " + ERRORS[code]);
+            }
+        }
+
+        ByteBuffer frame() {
+            ByteBuffer frame = loop.frame;
+            frame.clear();
+            return frame;
+        }
+
+        void sendFrame() {
+            ByteBuffer frame = loop.frame;
+            frame.flip();
+            send(frame);
+        }
+
+        void sendLine(String line) {
+            send(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        /** A read-only copy of the frame just put in the loop's scratch buffer. */
+        ByteBuffer sharedFrame() {
+            ByteBuffer frame = loop.frame;
+            frame.flip();
+            return ByteBuffer.allocate(frame.remaining()).put(frame).flip().asReadOnlyBuffer();
+        }
+
+        ByteBuffer sharedLine(String line) {
+            return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+        }
+
+        void leaveGame() {
+            if (game != null) {
+                game.players[color] = null;
+                if (game.abandoned()) {
+                    loop.games.remove(game.id);
+                }
+                game = null;
+            }
+            if (watching != null) {
+                watching.spectators.remove(this);
+                if (watching.abandoned()) {
+                    loop.games.remove(watching.id);
+                }
+                watching = null;
+            }
+        }
+    }
+
+    /** A non-blocking connection served by its loop's selector. */
+    private final class Connection extends Client {
+        final SocketChannel channel;
+        final long acceptedNanos = System.nanoTime();
+        // in write mode between reads
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private int pendingBytes;
+        SelectionKey key;
+        /** The game this connection is moving to another loop to join or watch, or -1. */
+        int joining = -1;
+        boolean watchOnArrival;
+        EventLoop movingTo;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        int interest() {
+            return out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            handleInput();
+        }
+
+        // handles what has been read in full, unless the connection moves away or closes on the way
+        void handleInput() {
+            in.flip();
+            while (!closed && movingTo == null && in.hasRemaining()) {
+                boolean handled;
+                if (mode == UNKNOWN) {
+                    handled = identify();
+                } else if (mode == BINARY) {
+                    handled = readFrame();
+                } else {
+                    handled = readLine();
+                }
+                if (!handled) {
+                    break;
+                }
+            }
+            in.compact();
+            if (movingTo != null) {
+                // the last thing this loop does with the connection
+                handOff();
+            } else if (!closed && !in.hasRemaining()) {
+                sendError(GameProtocol.BAD_FRAME);
+                close();
+            }
+        }
+
+        // picks the protocol from the first byte, consuming only the binary handshake
+        private boolean identify() {
+            int start = in.position();
+            if ((in.get(start) & 0xFF) != GameProtocol.MAGIC) {
+                if (in.get(start) == 'g' || in.get(start) == 'w') {
+                    mode = TEXT;
+                } else {
+                    joinLegacy();
+                }
+                return true;
+            }
+            if (in.remaining() < 3) {
+                return false;
+            }
+            int lowest = in.get(start + 1) & 0xFF;
+            int highest = in.get(start + 2) & 0xFF;
+            in.position(start + 3);
+            int version = lowest <= GameProtocol.VERSION && GameProtocol.VERSION <= highest ? GameProtocol.VERSION : 0;
+            frame().put((byte) GameProtocol.MAGIC).put((byte) version);
+            sendFrame();
+            if (version == 0) {
+                close();
+            } else {
+                mode = BINARY;
+            }
+            return true;
+        }
+
+        /** Puts an old board, which cannot name a game, in game 0. */
+        void joinLegacy() {
+            mode = LEGACY;
+            route(0, false);
+        }
+
+        void handOff() {
+            EventLoop target = movingTo;
+            movingTo = null;
+            target.adopt(this);
+        }
+
+        @Override
+        void route(int id, boolean watch) {
+            EventLoop owner = owner(id);
+            if (owner == loop) {
+                enter(id, watch);
+                return;
+            }
+            key.cancel();
+            key = null;
+            joining = id;
+            watchOnArrival = watch;
+            movingTo = owner;
+        }
+
+        @Override
+        void enter(int id, boolean watch) {
+            joining = -1;
+            super.enter(id, watch);
+        }
+
+        private boolean readFrame() {
+            if (in.remaining() < 2) {
+                return false;
+            }
+            int start = in.position();
+            int length = in.getShort(start) & 0xFFFF;
+            if (length == 0 || length > GameProtocol.MAX_FRAME_BYTES) {
+                close();
+                return false;
+            }
+            if (in.remaining() < 2 + length) {
+                return false;
+            }
+            in.position(start + 2 + length);
+            handleFrame(in.get(start + 2), start + 3, length - 1);
+            return true;
+        }
+
+        // the fields are read in place from the input buffer
+        private void handleFrame(int type, int at, int size) {
+            if ((type == GameProtocol.JOIN || type == GameProtocol.WATCH) && size == 4) {
+                handleJoinFrame(in.getInt(at), type == GameProtocol.WATCH);
+            } else if (type == GameProtocol.MOVE && size == 12) {
+                handleMoveFrame(in.getInt(at), in.getShort(at + 4) & 0xFFFF, in.getShort(at + 6) & 0xFFFF,
+                        in.getInt(at + 8));
+            } else if (type == GameProtocol.RESIGN && size == 4) {
+                handleResignFrame(in.getInt(at));
+            } else if (type == GameProtocol.PING && size == 4) {
+                ping(in.getInt(at));
+            } else {
+                sendError(GameProtocol.BAD_FRAME);
+            }
+        }
+
+        private boolean readLine() {
+            int end = -1;
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return false;
+            }
+            String line = new String(in.array(), in.position(), end - in.position(), StandardCharsets.US_ASCII).trim();
+            in.position(end + 1);
+            if (line.isEmpty()) {
+                return true;
+            }
+            if (game == null && watching == null) {
+                handleGreeting(line);
+            } else {
+                handleLine(line);
+            }
+            return true;
+        }
+
+        @Override
+        void send(ByteBuffer buffer) {
+            write(buffer, true);
+        }
+
+        @Override
+        void sendView(ByteBuffer view) {
+            write(view, false);
+        }
+
+        // writes at once what the socket takes and queues the rest, or a copy of it, for when it is writable
+        private void write(ByteBuffer buffer, boolean copy) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (out.isEmpty()) {
+                    channel.write(buffer);
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            pendingBytes += buffer.remaining();
+            if (pendingBytes > MAX_PENDING_BYTES) {
+                close();
+                return;
+            }
+            out.add(copy ? ByteBuffer.allocate(buffer.remaining()).put(buffer).flip() : buffer);
+            if (key != null) {
+                key.interestOps(interest());
+            }
+        }
+
+        @Override
+        int pendingBytes() {
+            return pendingBytes;
+        }
+
+        @Override
+        void dropBacklog() {
+            ByteBuffer head = out.peek();
+            out.clear();
+            pendingBytes = 0;
+            // queued buffers start at position 0, so a later one has been partly written
+            if (head != null && head.position() > 0) {
+                out.add(head);
+                pendingBytes = head.remaining();
+            }
+            if (key != null) {
+                key.interestOps(interest());
+            }
+        }
+
+        void flush() throws IOException {
+            while (!out.isEmpty()) {
+                ByteBuffer buffer = out.peek();
+                int before = buffer.remaining();
+                channel.write(buffer);
+                pendingBytes -= before - buffer.remaining();
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                out.poll();
+            }
+            key.interestOps(interest());
+            catchUp();
+        }
+
+        @Override
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            leaveGame();
+        }
+    }
+
+    /**
+     * A blocking socket with a virtual thread reading it and another writing it. The reader
+     * decodes on its own thread and hands the results to the owning loop as tasks; everything
+     * else about the client stays on that loop, as for a {@link Connection}.
+     */
+    private final class BlockingClient extends Client {
+        final SocketChannel channel;
+        private final LinkedBlockingQueue<ByteBuffer> out = new LinkedBlockingQueue<>();
+        private final AtomicInteger pendingBytes = new AtomicInteger();
+        // where tasks go; changed on the old loop's thread when the client joins a game elsewhere
+        private volatile EventLoop owner;
+
+        BlockingClient(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            owner = loop;
+        }
+
+        /** Runs {@code task} on the owning loop, following the client if it has moved on meanwhile. */
+        void post(Runnable task) {
+            EventLoop target = owner;
+            target.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (owner != target) {
+                        post(task);
+                    } else if (!closed) {
+                        task.run();
+                    }
+                }
+            });
+        }
+
+        void readLoop() {
+            try {
+                Socket socket = channel.socket();
+                var in = new BufferedInputStream(socket.getInputStream());
+                socket.setSoTimeout((int) HANDSHAKE_MILLIS);
+                in.mark(1);
+                int first;
+                try {
+                    first = in.read();
+                } catch (SocketTimeoutException e) {
+                    first = 0;
+                }
+                socket.setSoTimeout(0);
+                if (first < 0) {
+                    return;
+                }
+                if (first == GameProtocol.MAGIC) {
+                    readFrames(new DataInputStream(in));
+                    return;
+                }
+                in.reset();
+                readLines(in, first == 'g' || first == 'w');
+            } catch (IOException e) {
+                // the client has gone, or was closed
+            } finally {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                });
+            }
+        }
+
+        private void readLines(BufferedInputStream in, boolean greeted) throws IOException {
+            int lineMode = greeted ? TEXT : LEGACY;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mode = lineMode;
+                    if (lineMode == LEGACY) {
+                        route(0, false);
+                    }
+                }
+            });
+            var lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                String text = line.trim();
+                if (text.isEmpty()) {
+                    continue;
+                }
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (game == null && watching == null) {
+                            handleGreeting(text);
+                        } else {
+                            handleLine(text);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void readFrames(DataInputStream in) throws IOException {
+            int lowest = in.readUnsignedByte();
+            int highest = in.readUnsignedByte();
+            int version = lowest <= GameProtocol.VERSION && GameProtocol.VERSION <= highest ? GameProtocol.VERSION : 0;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    frame().put((byte) GameProtocol.MAGIC).put((byte) version);
+                    sendFrame();
+                    if (version == 0) {
+                        close();
+                    } else {
+                        mode = BINARY;
+                    }
+                }
+            });
+            byte[] body = new byte[GameProtocol.MAX_FRAME_BYTES];
+            ByteBuffer fields = ByteBuffer.wrap(body);
+            while (true) {
+                int length = in.readUnsignedShort();
+                if (length == 0 || length > GameProtocol.MAX_FRAME_BYTES) {
+                    return;
+                }
+                in.readFully(body, 0, length);
+                int type = body[0];
+                int size = length - 1;
+                int first = size >= 4 ? fields.getInt(1) : 0;
+                Runnable task;
+                if ((type == GameProtocol.JOIN || type == GameProtocol.WATCH) && size == 4) {
+                    boolean watch = type == GameProtocol.WATCH;
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            handleJoinFrame(first, watch);
+                        }
+                    };
+                } else if (type == GameProtocol.MOVE && size == 12) {
+                    int sequence = fields.getShort(5) & 0xFFFF;
+                    int wire = fields.getShort(7) & 0xFFFF;
+                    int clockMillis = fields.getInt(9);
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            handleMoveFrame(first, sequence, wire, clockMillis);
+                        }
+                    };
+                } else if (type == GameProtocol.RESIGN && size == 4) {
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            handleResignFrame(first);
+                        }
+                    };
+                } else if (type == GameProtocol.PING && size == 4) {
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            ping(first);
+                        }
+                    };
+                } else {
+                    task = new Runnable() {
+                        @Override
+                        public void run() {
+                            sendError(GameProtocol.BAD_FRAME);
+                        }
+                    };
+                }
+                post(task);
+            }
+        }
+
+        void writeLoop() {
+            try {
+                while (true) {
+                    ByteBuffer buffer = out.take();
+                    if (buffer == END_OF_OUTPUT) {
+                        return;
+                    }
+                    int length = buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (pendingBytes.addAndGet(-length) == 0 && resyncing) {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                catchUp();
+                            }
+                        });
+                    }
+                }
+            } catch (IOException e) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        close();
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        void send(ByteBuffer buffer) {
+            if (closed) {
+                return;
+            }
+            if (pendingBytes.addAndGet(buffer.remaining()) > MAX_PENDING_BYTES) {
+                close();
+                return;
+            }
+            out.add(ByteBuffer.allocate(buffer.remaining()).put(buffer).flip());
+        }
+
+        @Override
+        void sendView(ByteBuffer view) {
+            if (closed) {
+                return;
+            }
+            pendingBytes.addAndGet(view.remaining());
+            out.add(view);
+        }
+
+        @Override
+        int pendingBytes() {
+            return pendingBytes.get();
+        }
+
+        // the writer finishes whatever it has taken already
+        @Override
+        void dropBacklog() {
+            var dropped = new ArrayList<ByteBuffer>();
+            out.drainTo(dropped);
+            int bytes = 0;
+            for (ByteBuffer buffer : dropped) {
+                bytes += buffer.remaining();
+            }
+            pendingBytes.addAndGet(-bytes);
+        }
+
+        @Override
+        void route(int id, boolean watch) {
+            EventLoop target = owner(id);
+            if (target == loop) {
+                enter(id, watch);
+                return;
+            }
+            // queued there ahead of every task that will find the owner changed and follow
+            target.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loop = target;
+                    if (!closed) {
+                        enter(id, watch);
+                    }
+                }
+            });
+            owner = target;
+        }
+
+        @Override
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            blockingClients.remove(this);
+            out.add(END_OF_OUTPUT);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            leaveGame();
+        }
+    }
+}
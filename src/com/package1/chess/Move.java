@@ -0,0 +1,66 @@
+package com.package1.chess;
+
+/**
+ * Moves are packed into an int: bits 0-5 hold the from-square, bits 6-11 the to-square,
+ * bits 12-14 the promotion rank (0 for none, otherwise the {@link Position} piece type) and
+ * bits 15-16 a flag for moves that need special handling when played.
+ */
+final class Move {
+    static final int NONE = 0;
+
+    static final int NORMAL = 0;
+    static final int EN_PASSANT = 1;
+    static final int CASTLING = 2;
+    static final int DOUBLE_PUSH = 3;
+
+    private static final char[] PROMOTION_CHARS = {' ', 'q', 'b', 'r', 'n'};
+
+    private Move() {
+    }
+
+    static int of(int from, int to) {
+        return from | (to << 6);
+    }
+
+    static int of(int from, int to, int flag) {
+        return from | (to << 6) | (flag << 15);
+    }
+
+    static int promotion(int from, int to, int type) {
+        return from | (to << 6) | (type << 12);
+    }
+
+    static int from(int move) {
+        return move & 63;
+    }
+
+    static int to(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    static int promotion(int move) {
+        return (move >>> 12) & 7;
+    }
+
+    static int flag(int move) {
+        return (move >>> 15) & 3;
+    }
+
+    /** Long algebraic notation, e.g. {@code e2e4} or {@code e7e8q}. */
+    static String toString(int move) {
+        if (move == NONE) {
+            return "0000";
+        }
+        var sb = new StringBuilder(5);
+        appendSquare(sb, from(move));
+        appendSquare(sb, to(move));
+        if (promotion(move) != 0) {
+            sb.append(PROMOTION_CHARS[promotion(move)]);
+        }
+        return sb.toString();
+    }
+
+    static void appendSquare(StringBuilder sb, int square) {
+        sb.append((char) ('a' + Bitboards.col(square))).append((char) ('1' + Bitboards.row(square)));
+    }
+}
@@ -0,0 +1,234 @@
+package com.package1.chess;
+
+/**
+ * Legal move generation. Pins and checks are worked out up front from the king's point of view,
+ * so every move written to the list is legal without playing it and testing the king afterwards.
+ */
+final class MoveGenerator {
+
+    private MoveGenerator() {
+    }
+
+    /** Fills {@code list} with every legal move for the side to move. */
+    static void generateLegal(Position p, MoveList list) {
+        generate(p, list, true);
+    }
+
+    /** Fills {@code list} with the legal captures and queen promotions only. */
+    static void generateNoisy(Position p, MoveList list) {
+        generate(p, list, false);
+    }
+
+    private static void generate(Position p, MoveList list, boolean quiets) {
+        list.clear();
+        int us = p.sideToMove;
+        int them = us ^ 1;
+        long ours = p.colorBoards[us];
+        long theirs = p.colorBoards[them];
+        long occupied = p.occupied;
+        int kingSq = p.kingSquare(us);
+        long targets = quiets ? ~ours : theirs;
+
+        long kingMoves = Attacks.KING[kingSq] & targets;
+        long withoutKing = occupied ^ Bitboards.bit(kingSq);
+        while (kingMoves != 0) {
+            int to = Bitboards.lsb(kingMoves);
+            kingMoves &= kingMoves - 1;
+            if (!p.isAttacked(to, them, withoutKing)) {
+                list.add(Move.of(kingSq, to));
+            }
+        }
+
+        long checkers = p.attackersTo(kingSq, occupied) & theirs;
+        if (Bitboards.count(checkers) > 1) {
+            return;
+        }
+        long checkMask = checkers == 0 ? Bitboards.ALL
+                : checkers | Attacks.between(kingSq, Bitboards.lsb(checkers));
+        long pinned = pinned(p, us, kingSq);
+        long mask = targets & checkMask;
+
+        long knights = p.pieces(us, Position.KNIGHT) & ~pinned;
+        while (knights != 0) {
+            int from = Bitboards.lsb(knights);
+            knights &= knights - 1;
+            addAll(list, from, Attacks.KNIGHT[from] & mask);
+        }
+
+        long diagonal = p.bishopsAndQueens(us);
+        while (diagonal != 0) {
+            int from = Bitboards.lsb(diagonal);
+            diagonal &= diagonal - 1;
+            long moves = Attacks.bishopAttacks(from, occupied) & mask;
+            if ((pinned & Bitboards.bit(from)) != 0) {
+                moves &= Attacks.line(kingSq, from);
+            }
+            addAll(list, from, moves);
+        }
+
+        long straight = p.rooksAndQueens(us);
+        while (straight != 0) {
+            int from = Bitboards.lsb(straight);
+            straight &= straight - 1;
+            long moves = Attacks.rookAttacks(from, occupied) & mask;
+            if ((pinned & Bitboards.bit(from)) != 0) {
+                moves &= Attacks.line(kingSq, from);
+            }
+            addAll(list, from, moves);
+        }
+
+        generatePawnMoves(p, list, us, kingSq, pinned, checkMask, quiets);
+
+        if (quiets && checkers == 0) {
+            generateCastling(p, list, us);
+        }
+    }
+
+    private static void generatePawnMoves(Position p, MoveList list, int us, int kingSq, long pinned,
+                                          long checkMask, boolean quiets) {
+        int them = us ^ 1;
+        long pawns = p.pieces(us, Position.PAWN);
+        long empty = ~p.occupied;
+        long theirs = p.colorBoards[them];
+        int up = us == Position.WHITE ? 8 : -8;
+        long promotionRow = us == Position.WHITE ? Bitboards.ROW_8 : Bitboards.ROW_1;
+        long doublePushRow = us == Position.WHITE ? Bitboards.ROW_1 << 24 : Bitboards.ROW_1 << 32;
+
+        long single = shiftUp(pawns, us) & empty;
+        long pushes = single & checkMask;
+        if (!quiets) {
+            pushes &= promotionRow;
+        }
+        while (pushes != 0) {
+            int to = Bitboards.lsb(pushes);
+            pushes &= pushes - 1;
+            int from = to - up;
+            if (isPinnedAway(pinned, kingSq, from, to)) {
+                continue;
+            }
+            addPawnMove(list, from, to, promotionRow, quiets);
+        }
+
+        if (quiets) {
+            long doubles = shiftUp(single, us) & empty & doublePushRow & checkMask;
+            while (doubles != 0) {
+                int to = Bitboards.lsb(doubles);
+                doubles &= doubles - 1;
+                int from = to - 2 * up;
+                if (!isPinnedAway(pinned, kingSq, from, to)) {
+                    list.add(Move.of(from, to, Move.DOUBLE_PUSH));
+                }
+            }
+        }
+
+        long pawnsLeft = pawns & ~Bitboards.FILE_A;
+        long pawnsRight = pawns & ~Bitboards.FILE_H;
+        long capturesLeft = (us == Position.WHITE ? pawnsLeft << 7 : pawnsLeft >>> 9) & theirs & checkMask;
+        long capturesRight = (us == Position.WHITE ? pawnsRight << 9 : pawnsRight >>> 7) & theirs & checkMask;
+        int leftDelta = us == Position.WHITE ? 7 : -9;
+        int rightDelta = us == Position.WHITE ? 9 : -7;
+        while (capturesLeft != 0) {
+            int to = Bitboards.lsb(capturesLeft);
+            capturesLeft &= capturesLeft - 1;
+            int from = to - leftDelta;
+            if (!isPinnedAway(pinned, kingSq, from, to)) {
+                addPawnMove(list, from, to, promotionRow, quiets);
+            }
+        }
+        while (capturesRight != 0) {
+            int to = Bitboards.lsb(capturesRight);
+            capturesRight &= capturesRight - 1;
+            int from = to - rightDelta;
+            if (!isPinnedAway(pinned, kingSq, from, to)) {
+                addPawnMove(list, from, to, promotionRow, quiets);
+            }
+        }
+
+        int ep = p.epSquare;
+        if (ep >= 0) {
+            int captured = ep ^ 8;
+            if ((checkMask & (Bitboards.bit(ep) | Bitboards.bit(captured))) == 0) {
+                return;
+            }
+            long attackers = Attacks.pawnAttacks(them, ep) & pawns;
+            while (attackers != 0) {
+                int from = Bitboards.lsb(attackers);
+                attackers &= attackers - 1;
+                // the capture empties two squares on one rank, so look again for sliders behind them
+                long after = p.occupied ^ Bitboards.bit(from) ^ Bitboards.bit(captured) | Bitboards.bit(ep);
+                if ((Attacks.rookAttacks(kingSq, after) & p.rooksAndQueens(them)) == 0
+                        && (Attacks.bishopAttacks(kingSq, after) & p.bishopsAndQueens(them)) == 0) {
+                    list.add(Move.of(from, ep, Move.EN_PASSANT));
+                }
+            }
+        }
+    }
+
+    private static void generateCastling(Position p, MoveList list, int us) {
+        int rights = p.castlingRights >> (2 * us);
+        if ((rights & 3) == 0) {
+            return;
+        }
+        int them = us ^ 1;
+        int kingSq = Bitboards.square(4, us == Position.WHITE ? 0 : 7);
+        long occupied = p.occupied;
+        if ((rights & 1) != 0
+                && (occupied & (Bitboards.bit(kingSq + 1) | Bitboards.bit(kingSq + 2))) == 0
+                && !p.isAttacked(kingSq + 1, them, occupied)
+                && !p.isAttacked(kingSq + 2, them, occupied)) {
+            list.add(Move.of(kingSq, kingSq + 2, Move.CASTLING));
+        }
+        if ((rights & 2) != 0
+                && (occupied & (Bitboards.bit(kingSq - 1) | Bitboards.bit(kingSq - 2) | Bitboards.bit(kingSq - 3))) == 0
+                && !p.isAttacked(kingSq - 1, them, occupied)
+                && !p.isAttacked(kingSq - 2, them, occupied)) {
+            list.add(Move.of(kingSq, kingSq - 2, Move.CASTLING));
+        }
+    }
+
+    /** Our pieces standing alone between our king and an enemy slider. */
+    static long pinned(Position p, int us, int kingSq) {
+        int them = us ^ 1;
+        long snipers = (Attacks.ROOK_PSEUDO[kingSq] & p.rooksAndQueens(them))
+                | (Attacks.BISHOP_PSEUDO[kingSq] & p.bishopsAndQueens(them));
+        long pinned = 0L;
+        while (snipers != 0) {
+            int sniper = Bitboards.lsb(snipers);
+            snipers &= snipers - 1;
+            long blockers = Attacks.between(kingSq, sniper) & p.occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+                pinned |= blockers & p.colorBoards[us];
+            }
+        }
+        return pinned;
+    }
+
+    private static boolean isPinnedAway(long pinned, int kingSq, int from, int to) {
+        return (pinned & Bitboards.bit(from)) != 0 && (Attacks.line(kingSq, from) & Bitboards.bit(to)) == 0;
+    }
+
+    private static long shiftUp(long bb, int color) {
+        return color == Position.WHITE ? bb << 8 : bb >>> 8;
+    }
+
+    private static void addPawnMove(MoveList list, int from, int to, long promotionRow, boolean quiets) {
+        if ((promotionRow & Bitboards.bit(to)) == 0) {
+            list.add(Move.of(from, to));
+            return;
+        }
+        list.add(Move.promotion(from, to, Position.QUEEN));
+        if (quiets) {
+            list.add(Move.promotion(from, to, Position.KNIGHT));
+            list.add(Move.promotion(from, to, Position.ROOK));
+            list.add(Move.promotion(from, to, Position.BISHOP));
+        }
+    }
+
+    private static void addAll(MoveList list, int from, long targets) {
+        while (targets != 0) {
+            int to = Bitboards.lsb(targets);
+            targets &= targets - 1;
+            list.add(Move.of(from, to));
+        }
+    }
+}
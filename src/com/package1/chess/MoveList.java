@@ -0,0 +1,56 @@
+package com.package1.chess;
+
+/** A reusable buffer of packed moves. Clearing it only resets the size. */
+final class MoveList {
+    static final int CAPACITY = 256;
+
+    final int[] moves = new int[CAPACITY];
+    // ordering keys filled in by the search, parallel to moves
+    final int[] scores = new int[CAPACITY];
+    int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int move) {
+        moves[size++] = move;
+    }
+
+    int get(int i) {
+        return moves[i];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Swaps the best-scored move of {@code i..size-1} into slot {@code i} and returns it, so a
+     * cut-off after the first few moves never pays for sorting the rest.
+     */
+    int pickNext(int i) {
+        int best = i;
+        for (int j = i + 1; j < size; j++) {
+            if (scores[j] > scores[best]) {
+                best = j;
+            }
+        }
+        int move = moves[best];
+        int score = scores[best];
+        moves[best] = moves[i];
+        scores[best] = scores[i];
+        moves[i] = move;
+        scores[i] = score;
+        return move;
+    }
+
+    boolean contains(int move) {
+        for (int i = 0; i < size; i++) {
+            if (moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,130 @@
+package com.package1.chess;
+
+/**
+ * Cache of pawn-structure evaluation keyed by {@link Position#pawnHash}. Pawn moves are a small
+ * share of all moves, so nearly every lookup finds the structure already scored.
+ *
+ * Each slot holds the full pawn key and the packed middlegame/endgame score. A table belongs to
+ * one search thread and is not safe to share.
+ */
+final class PawnTable {
+    // white-relative penalties and bonuses, middlegame then endgame
+    private static final int DOUBLED_MG = -10;
+    private static final int DOUBLED_EG = -20;
+    private static final int ISOLATED_MG = -10;
+    private static final int ISOLATED_EG = -15;
+    private static final int BACKWARD_MG = -8;
+    private static final int BACKWARD_EG = -10;
+    /** Passed pawn bonus by rows advanced from the pawn's own back rank. */
+    private static final int[] PASSED_MG = {0, 5, 10, 15, 25, 40, 60, 0};
+    private static final int[] PASSED_EG = {0, 10, 20, 35, 60, 90, 130, 0};
+
+    /** Squares that must be free of enemy pawns for a pawn to be passed, indexed {@code color * 64 + square}. */
+    private static final long[] PASSED_SPAN = new long[2 * 64];
+    /** Friendly pawn squares from which a pawn could still be supported, indexed {@code color * 64 + square}. */
+    private static final long[] SUPPORT_SPAN = new long[2 * 64];
+    private static final long[] ADJACENT_FILES = new long[8];
+
+    static {
+        for (int col = 0; col < 8; col++) {
+            long file = Bitboards.FILE_A << col;
+            ADJACENT_FILES[col] = ((file << 1) & ~Bitboards.FILE_A) | ((file >>> 1) & ~Bitboards.FILE_H);
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            int col = Bitboards.col(sq);
+            int row = Bitboards.row(sq);
+            long span = ADJACENT_FILES[col] | (Bitboards.FILE_A << col);
+            long above = row == 7 ? 0L : Bitboards.ALL << (8 * (row + 1));
+            long below = row == 0 ? 0L : Bitboards.ALL >>> (8 * (8 - row));
+            PASSED_SPAN[sq] = span & above;
+            PASSED_SPAN[64 + sq] = span & below;
+            SUPPORT_SPAN[sq] = ADJACENT_FILES[col] & ~above;
+            SUPPORT_SPAN[64 + sq] = ADJACENT_FILES[col] & ~below;
+        }
+    }
+
+    private final long[] keys;
+    private final int[] scores;
+    private final int mask;
+    private long probes;
+    private long hits;
+
+    /** {@code entries} is rounded down to a power of two. */
+    PawnTable(int entries) {
+        int size = Integer.highestOneBit(Math.max(1, entries));
+        keys = new long[size];
+        scores = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the index of the slot holding the pawn evaluation of {@code p}, computing and
+     * storing it first on a miss. Read the result with {@link #mg} and {@link #eg}.
+     */
+    int probe(Position p) {
+        long key = p.pawnHash;
+        int slot = (int) key & mask;
+        probes++;
+        // an empty slot has key 0, which is also the key of a pawnless position, so score it anyway
+        if (keys[slot] == key && key != 0) {
+            hits++;
+            return slot;
+        }
+        long white = p.pieces(Position.WHITE, Position.PAWN);
+        long black = p.pieces(Position.BLACK, Position.PAWN);
+        int mg = 0;
+        int eg = 0;
+        for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+            long ours = color == Position.WHITE ? white : black;
+            long theirs = color == Position.WHITE ? black : white;
+            int sign = color == Position.WHITE ? 1 : -1;
+            long pawns = ours;
+            while (pawns != 0) {
+                int sq = Bitboards.lsb(pawns);
+                pawns &= pawns - 1;
+                int col = Bitboards.col(sq);
+                int advanced = color == Position.WHITE ? Bitboards.row(sq) : 7 - Bitboards.row(sq);
+                if (((Bitboards.FILE_A << col) & ours & ~Bitboards.bit(sq)) != 0) {
+                    // counted once per pawn, so two pawns on a file cost the penalty twice
+                    mg += sign * DOUBLED_MG / 2;
+                    eg += sign * DOUBLED_EG / 2;
+                }
+                if ((ADJACENT_FILES[col] & ours) == 0) {
+                    mg += sign * ISOLATED_MG;
+                    eg += sign * ISOLATED_EG;
+                } else {
+                    int stop = color == Position.WHITE ? sq + 8 : sq - 8;
+                    if ((SUPPORT_SPAN[color * 64 + sq] & ours) == 0
+                            && (Attacks.pawnAttacks(color, stop) & theirs) != 0) {
+                        mg += sign * BACKWARD_MG;
+                        eg += sign * BACKWARD_EG;
+                    }
+                }
+                if ((PASSED_SPAN[color * 64 + sq] & theirs) == 0) {
+                    mg += sign * PASSED_MG[advanced];
+                    eg += sign * PASSED_EG[advanced];
+                }
+            }
+        }
+        keys[slot] = key;
+        scores[slot] = (mg << 16) + eg;
+        return slot;
+    }
+
+    int mg(int slot) {
+        return (scores[slot] + 0x8000) >> 16;
+    }
+
+    int eg(int slot) {
+        return (short) scores[slot];
+    }
+
+    /** Lookups since the table was created, for {@link Engine#pawnHashHitRate}. */
+    long probes() {
+        return probes;
+    }
+
+    long hits() {
+        return hits;
+    }
+}
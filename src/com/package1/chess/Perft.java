@@ -0,0 +1,144 @@
+package com.package1.chess;
+
+import java.util.Arrays;
+
+/**
+ * Counts the leaf nodes of the legal move tree. Used both as a correctness check for
+ * {@link MoveGenerator} and {@link Position#makeMove} and as a speed benchmark for them.
+ */
+final class Perft {
+    private static final int MAX_DEPTH = 32;
+
+    /** Reference positions and their published node counts from depth 1 upwards. */
+    static final String[] SUITE_FENS = {
+            Position.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+    };
+    static final long[][] SUITE_COUNTS = {
+            {20, 400, 8902, 197281, 4865609, 119060324},
+            {48, 2039, 97862, 4085603, 193690690},
+            {14, 191, 2812, 43238, 674624, 11030083},
+            {6, 264, 9467, 422333, 15833292},
+            {44, 1486, 62379, 2103487, 89941194},
+            {46, 2079, 89890, 3894594, 164075551},
+    };
+
+    private final Position position = new Position();
+    private final MoveList[] moveLists = new MoveList[MAX_DEPTH + 1];
+
+    Perft() {
+        for (int i = 0; i <= MAX_DEPTH; i++) {
+            moveLists[i] = new MoveList();
+        }
+    }
+
+    long perft(Position root, int depth) {
+        position.copyFrom(root);
+        return depth == 0 ? 1 : count(0, depth);
+    }
+
+    /** Prints the node count below every root move, then the total and the speed. */
+    long divide(Position root, int depth) {
+        long start = System.nanoTime();
+        position.copyFrom(root);
+        MoveList rootMoves = moveLists[0];
+        MoveGenerator.generateLegal(position, rootMoves);
+        long total = 0;
+        for (int i = 0; i < rootMoves.size(); i++) {
+            int move = rootMoves.get(i);
+            position.makeMove(move);
+            long nodes = depth <= 1 ? 1 : count(1, depth - 1);
+            position.unmakeMove(move);
+            System.out.println(Move.toString(move) + ": " + nodes);
+            total += nodes;
+        }
+        System.out.println();
+        report(total, System.nanoTime() - start);
+        return total;
+    }
+
+    private long count(int ply, int depth) {
+        MoveList moves = moveLists[ply];
+        MoveGenerator.generateLegal(position, moves);
+        if (depth == 1) {
+            return moves.size();
+        }
+        long nodes = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            position.makeMove(move);
+            nodes += count(ply + 1, depth - 1);
+            position.unmakeMove(move);
+        }
+        return nodes;
+    }
+
+    /** Runs every reference position up to {@code maxDepth} and returns false on any mismatch. */
+    boolean runSuite(int maxDepth) {
+        var position = new Position();
+        boolean ok = true;
+        long totalNodes = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < SUITE_FENS.length; i++) {
+            position.setFen(SUITE_FENS[i]);
+            System.out.println(SUITE_FENS[i]);
+            for (int depth = 1; depth <= Math.min(maxDepth, SUITE_COUNTS[i].length); depth++) {
+                long start = System.nanoTime();
+                long nodes = perft(position, depth);
+                long nanos = System.nanoTime() - start;
+                long expected = SUITE_COUNTS[i][depth - 1];
+                boolean match = nodes == expected;
+                ok &= match;
+                totalNodes += nodes;
+                totalNanos += nanos;
+                System.out.println("  depth " + depth + ": " + nodes + (match ? " ok" : " FAILED, expected " + expected)
+                        + " (" + nanos / 1_000_000 + " ms)");
+            }
+        }
+        System.out.println();
+        report(totalNodes, totalNanos);
+        System.out.println(ok ? "perft suite passed" : "perft suite FAILED");
+        return ok;
+    }
+
+    private static void report(long nodes, long nanos) {
+        long nps = nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+        System.out.println("Nodes: " + nodes + "  Time: " + nanos / 1_000_000 + " ms  NPS: " + nps);
+    }
+
+    /**
+     * {@code perft <depth> [fen]}, {@code perft divide <depth> [fen]} or {@code perft suite [maxDepth]}.
+     */
+    static int run(String[] args) {
+        if (args.length == 0) {
+            System.err.println("usage: perft <depth> [fen] | perft divide <depth> [fen] | perft suite [maxDepth]");
+            return 2;
+        }
+        var perft = new Perft();
+        if (args[0].equals("suite")) {
+            int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            return perft.runSuite(maxDepth) ? 0 : 1;
+        }
+        boolean divide = args[0].equals("divide");
+        int first = divide ? 1 : 0;
+        int depth = Math.min(Integer.parseInt(args[first]), MAX_DEPTH);
+        var position = new Position();
+        position.setFen(args.length > first + 1 ? joinFrom(args, first + 1) : Position.START_FEN);
+        if (divide) {
+            perft.divide(position, depth);
+        } else {
+            long start = System.nanoTime();
+            long nodes = perft.perft(position, depth);
+            report(nodes, System.nanoTime() - start);
+        }
+        return 0;
+    }
+
+    private static String joinFrom(String[] args, int from) {
+        return String.join(" ", Arrays.copyOfRange(args, from, args.length));
+    }
+}
@@ -0,0 +1,199 @@
+package com.package1.chess;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Polyglot {@code .bin} opening book, memory-mapped and searched in place.
+ *
+ * The file is a sequence of 16-byte big-endian entries sorted by key: the position's
+ * {@link PolyglotKeys Polyglot key}, the move, its weight and four bytes of learning data that
+ * are ignored here. Opening a book only maps it, so it costs the same for any size, and the
+ * operating system pages in the few entries each binary search touches. Lookups only use
+ * absolute reads of the mapped buffers, so one book can serve any number of threads at once.
+ */
+final class PolyglotBook implements AutoCloseable {
+    private static final int ENTRY_BYTES = 16;
+    /** Entries per mapped segment; a single mapping cannot exceed 2 GB. */
+    private static final int SEGMENT_ENTRIES = 1 << 26;
+    /** More moves than any position has book entries for. */
+    private static final int MAX_MOVES = 64;
+    /** Position types for Polyglot's promotion codes 1 to 4. */
+    private static final int[] PROMOTIONS = {0, Position.KNIGHT, Position.BISHOP, Position.ROOK, Position.QUEEN};
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long entries;
+
+    private PolyglotBook(FileChannel channel, MappedByteBuffer[] segments, long entries) {
+        this.channel = channel;
+        this.segments = segments;
+        this.entries = entries;
+    }
+
+    /**
+     * Maps the book at {@code path}. Throws IOException if it cannot be read or is not a whole
+     * number of entries.
+     */
+    static PolyglotBook open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size % ENTRY_BYTES != 0) {
+                throw new IOException(path + ": size " + size + " is not a multiple of " + ENTRY_BYTES);
+            }
+            long entries = size / ENTRY_BYTES;
+            var segments = new MappedByteBuffer[(int) ((entries + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = (long) i * SEGMENT_ENTRIES * ENTRY_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset,
+                        (long) SEGMENT_ENTRIES * ENTRY_BYTES));
+            }
+            return new PolyglotBook(channel, segments, entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    /**
+     * Writes the legal book moves for {@code p} and their weights into the arrays and returns
+     * how many there are. Entries whose move is not legal here, which only a corrupt book or a
+     * key collision can produce, are skipped.
+     */
+    int moves(Position p, int[] moves, int[] weights) {
+        long key = PolyglotKeys.key(p);
+        var legal = new MoveList();
+        MoveGenerator.generateLegal(p, legal);
+        int count = 0;
+        for (long i = lowerBound(key); i < entries && keyAt(i) == key && count < moves.length; i++) {
+            int move = toMove(legal, entryShort(i, 8));
+            if (move != Move.NONE) {
+                moves[count] = move;
+                weights[count] = entryShort(i, 10);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** The book move with the highest weight, or {@link Move#NONE} if {@code p} is not in the book. */
+    int bestMove(Position p) {
+        int[] moves = new int[MAX_MOVES];
+        int[] weights = new int[MAX_MOVES];
+        int count = moves(p, moves, weights);
+        int best = Move.NONE;
+        int bestWeight = -1;
+        for (int i = 0; i < count; i++) {
+            if (weights[i] > bestWeight) {
+                best = moves[i];
+                bestWeight = weights[i];
+            }
+        }
+        return best;
+    }
+
+    /** A book move chosen at random in proportion to the weights, or {@link Move#NONE}. */
+    int pickMove(Position p) {
+        int[] moves = new int[MAX_MOVES];
+        int[] weights = new int[MAX_MOVES];
+        int count = moves(p, moves, weights);
+        if (count == 0) {
+            return Move.NONE;
+        }
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += weights[i];
+        }
+        if (total == 0) {
+            return moves[0];
+        }
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (int i = 0; i < count; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return moves[i];
+            }
+        }
+        return moves[count - 1];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // the first entry whose key is not below key, comparing keys as unsigned like the book's sort order
+    private long lowerBound(long key) {
+        long low = 0;
+        long high = entries;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(keyAt(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long keyAt(long entry) {
+        return segments[(int) (entry / SEGMENT_ENTRIES)].getLong((int) (entry % SEGMENT_ENTRIES) * ENTRY_BYTES);
+    }
+
+    private int entryShort(long entry, int offset) {
+        return segments[(int) (entry / SEGMENT_ENTRIES)].getShort((int) (entry % SEGMENT_ENTRIES) * ENTRY_BYTES + offset)
+                & 0xFFFF;
+    }
+
+    /** {@code move} in the book's encoding, described at {@link #toMove}. */
+    static int toBookMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        if (Move.flag(move) == Move.CASTLING) {
+            to = to > from ? to + 1 : to - 2;
+        }
+        int code = 0;
+        for (int i = 1; i < PROMOTIONS.length; i++) {
+            if (PROMOTIONS[i] == Move.promotion(move)) {
+                code = i;
+            }
+        }
+        return Bitboards.col(to) | Bitboards.row(to) << 3 | Bitboards.col(from) << 6 | Bitboards.row(from) << 9
+                | code << 12;
+    }
+
+    /**
+     * Polyglot moves are to-file, to-row, from-file, from-row and promotion in 3 bits each, and
+     * castling is written as the king taking its own rook.
+     */
+    private static int toMove(MoveList legal, int bookMove) {
+        int to = Bitboards.square(bookMove & 7, (bookMove >>> 3) & 7);
+        int from = Bitboards.square((bookMove >>> 6) & 7, (bookMove >>> 9) & 7);
+        int code = (bookMove >>> 12) & 7;
+        if (code >= PROMOTIONS.length) {
+            return Move.NONE;
+        }
+        int promotion = PROMOTIONS[code];
+        for (int i = 0; i < legal.size(); i++) {
+            int move = legal.get(i);
+            int moveTo = Move.to(move);
+            if (Move.flag(move) == Move.CASTLING) {
+                moveTo = moveTo > Move.from(move) ? moveTo + 1 : moveTo - 2;
+            }
+            if (Move.from(move) == from && moveTo == to && Move.promotion(move) == promotion) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+}
@@ -0,0 +1,595 @@
+package com.package1.chess;
+
+import java.util.Arrays;
+
+/**
+ * Bitboard representation of a chess position: one 64-bit board per piece (colour and rank),
+ * one occupancy board per colour plus the combined occupancy, and a byte mailbox so that the
+ * piece on a square is a single array load.
+ *
+ * Piece codes are {@code player.ordinal() * 6 + rank.ordinal()}, so the white king is 0 and
+ * the black pawn is 11.
+ */
+final class Position {
+    static final int WHITE = 0;
+    static final int BLACK = 1;
+
+    static final int KING = 0;
+    static final int QUEEN = 1;
+    static final int BISHOP = 2;
+    static final int ROOK = 3;
+    static final int KNIGHT = 4;
+    static final int PAWN = 5;
+
+    static final int NO_PIECE = -1;
+
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+
+    // castling rights that survive a move touching each square
+    private static final int[] CASTLING_MASK = new int[64];
+
+    static {
+        Arrays.fill(CASTLING_MASK, 15);
+        CASTLING_MASK[Bitboards.square(4, 0)] = ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) & 15;
+        CASTLING_MASK[Bitboards.square(7, 0)] = ~WHITE_KINGSIDE & 15;
+        CASTLING_MASK[Bitboards.square(0, 0)] = ~WHITE_QUEENSIDE & 15;
+        CASTLING_MASK[Bitboards.square(4, 7)] = ~(BLACK_KINGSIDE | BLACK_QUEENSIDE) & 15;
+        CASTLING_MASK[Bitboards.square(7, 7)] = ~BLACK_KINGSIDE & 15;
+        CASTLING_MASK[Bitboards.square(0, 7)] = ~BLACK_QUEENSIDE & 15;
+    }
+
+    private static final int HISTORY_CAPACITY = 1024;
+
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // FEN letters in piece-code order
+    private static final String FEN_PIECES = "KQBRNPkqbrnp";
+
+    private static final Player[] PLAYERS = Player.values();
+    private static final Rank[] RANKS = Rank.values();
+
+    final long[] pieceBoards = new long[12];
+    final long[] colorBoards = new long[2];
+    long occupied;
+    final byte[] board = new byte[64];
+
+    int sideToMove = WHITE;
+    int castlingRights;
+    int epSquare = -1;
+    int halfmoveClock;
+    int fullmoveNumber = 1;
+    long hash;
+    /** Zobrist key of the pawns alone, for {@link PawnTable}. */
+    long pawnHash;
+    // white-relative evaluation sums and game phase, see Evaluation
+    int mgScore;
+    int egScore;
+    int phase;
+
+    // undo stack: what makeMove cannot recover from the move itself, one entry per move played
+    private int[] undoCaptured = new int[HISTORY_CAPACITY];
+    private int[] undoCastling = new int[HISTORY_CAPACITY];
+    private int[] undoEpSquare = new int[HISTORY_CAPACITY];
+    private int[] undoHalfmove = new int[HISTORY_CAPACITY];
+    private long[] undoHash = new long[HISTORY_CAPACITY];
+    int historySize;
+
+    Position() {
+        clear();
+    }
+
+    static int piece(int color, int type) {
+        return color * 6 + type;
+    }
+
+    static int piece(Player player, Rank rank) {
+        return piece(player.ordinal(), rank.ordinal());
+    }
+
+    static int colorOf(int piece) {
+        return piece >= 6 ? BLACK : WHITE;
+    }
+
+    static int typeOf(int piece) {
+        return piece >= 6 ? piece - 6 : piece;
+    }
+
+    static Player playerOf(int piece) {
+        return PLAYERS[colorOf(piece)];
+    }
+
+    static Rank rankOf(int piece) {
+        return RANKS[typeOf(piece)];
+    }
+
+    void clear() {
+        Arrays.fill(pieceBoards, 0L);
+        Arrays.fill(colorBoards, 0L);
+        occupied = 0L;
+        Arrays.fill(board, (byte) NO_PIECE);
+        sideToMove = WHITE;
+        castlingRights = 0;
+        epSquare = -1;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        hash = 0L;
+        pawnHash = 0L;
+        mgScore = 0;
+        egScore = 0;
+        phase = 0;
+        historySize = 0;
+    }
+
+    void setStartPosition() {
+        clear();
+        int[] backRank = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP, KNIGHT, ROOK};
+        for (int col = 0; col < 8; col++) {
+            put(piece(WHITE, backRank[col]), Bitboards.square(col, 0));
+            put(piece(WHITE, PAWN), Bitboards.square(col, 1));
+            put(piece(BLACK, PAWN), Bitboards.square(col, 6));
+            put(piece(BLACK, backRank[col]), Bitboards.square(col, 7));
+        }
+        castlingRights = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+        hash = computeHash();
+    }
+
+    void copyFrom(Position other) {
+        System.arraycopy(other.pieceBoards, 0, pieceBoards, 0, 12);
+        System.arraycopy(other.colorBoards, 0, colorBoards, 0, 2);
+        occupied = other.occupied;
+        System.arraycopy(other.board, 0, board, 0, 64);
+        sideToMove = other.sideToMove;
+        castlingRights = other.castlingRights;
+        epSquare = other.epSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        hash = other.hash;
+        pawnHash = other.pawnHash;
+        mgScore = other.mgScore;
+        egScore = other.egScore;
+        phase = other.phase;
+        ensureHistoryCapacity(other.historySize);
+        System.arraycopy(other.undoCaptured, 0, undoCaptured, 0, other.historySize);
+        System.arraycopy(other.undoCastling, 0, undoCastling, 0, other.historySize);
+        System.arraycopy(other.undoEpSquare, 0, undoEpSquare, 0, other.historySize);
+        System.arraycopy(other.undoHalfmove, 0, undoHalfmove, 0, other.historySize);
+        System.arraycopy(other.undoHash, 0, undoHash, 0, other.historySize);
+        historySize = other.historySize;
+    }
+
+    /**
+     * Loads a position in Forsyth-Edwards Notation; the move clocks may be omitted. Throws
+     * IllegalArgumentException, leaving the position in no particular state, if a field is
+     * malformed or the side not to move is in check. Castling rights whose king and rook are not
+     * on their home squares are dropped.
+     */
+    void setFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4 || fields.length > 6) {
+            throw new IllegalArgumentException("FEN needs 4 to 6 fields: " + fen);
+        }
+        clear();
+        int row = 7;
+        int col = 0;
+        for (int i = 0; i < fields[0].length(); i++) {
+            char c = fields[0].charAt(i);
+            if (c == '/' && col == 8 && row > 0) {
+                row--;
+                col = 0;
+            } else if (c >= '1' && c <= '8' && col + c - '0' <= 8) {
+                col += c - '0';
+            } else {
+                int piece = FEN_PIECES.indexOf(c);
+                if (piece < 0 || col >= 8 || (typeOf(piece) == PAWN && (row == 0 || row == 7))) {
+                    throw new IllegalArgumentException("Bad piece placement in FEN: " + fen);
+                }
+                put(piece, Bitboards.square(col, row));
+                col++;
+            }
+        }
+        if (row != 0 || col != 8) {
+            throw new IllegalArgumentException("FEN needs eight ranks of eight squares: " + fen);
+        }
+        if (Long.bitCount(pieces(WHITE, KING)) != 1 || Long.bitCount(pieces(BLACK, KING)) != 1) {
+            throw new IllegalArgumentException("FEN needs exactly one king per side: " + fen);
+        }
+        if (!fields[1].equals("w") && !fields[1].equals("b")) {
+            throw new IllegalArgumentException("Bad side to move in FEN: " + fen);
+        }
+        sideToMove = fields[1].equals("b") ? BLACK : WHITE;
+        if (isAttacked(kingSquare(sideToMove ^ 1), sideToMove, occupied)) {
+            throw new IllegalArgumentException("Side not to move is in check in FEN: " + fen);
+        }
+        if (!fields[2].equals("-")) {
+            for (char c : fields[2].toCharArray()) {
+                int right = "KQkq".indexOf(c);
+                if (right < 0) {
+                    throw new IllegalArgumentException("Bad castling rights in FEN: " + fen);
+                }
+                castlingRights |= 1 << right;
+            }
+        }
+        // a right needs its king and rook on their home squares, where makeMove would have kept them
+        for (int sq = 0; sq < 64; sq++) {
+            int home = piece(Bitboards.row(sq) == 0 ? WHITE : BLACK, Bitboards.col(sq) == 4 ? KING : ROOK);
+            if (CASTLING_MASK[sq] != 15 && board[sq] != home) {
+                castlingRights &= CASTLING_MASK[sq];
+            }
+        }
+        if (!fields[3].equals("-")) {
+            String ep = fields[3];
+            int epRow = sideToMove == WHITE ? 5 : 2;
+            if (ep.length() != 2 || ep.charAt(0) < 'a' || ep.charAt(0) > 'h' || ep.charAt(1) - '1' != epRow) {
+                throw new IllegalArgumentException("Bad en-passant square in FEN: " + fen);
+            }
+            int sq = Bitboards.square(ep.charAt(0) - 'a', epRow);
+            int forward = sideToMove == WHITE ? 8 : -8;
+            // like castling rights, a square no double push can have left is dropped
+            if (board[sq - forward] == piece(sideToMove ^ 1, PAWN) && board[sq] == NO_PIECE
+                    && board[sq + forward] == NO_PIECE) {
+                epSquare = sq;
+            }
+        }
+        if (fields.length > 4) {
+            halfmoveClock = parseCount(fields[4], 0, fen);
+        }
+        if (fields.length > 5) {
+            fullmoveNumber = parseCount(fields[5], 1, fen);
+        }
+        hash = computeHash();
+    }
+
+    private static int parseCount(String field, int min, String fen) {
+        try {
+            int count = Integer.parseInt(field);
+            if (count >= min) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Bad move counter in FEN: " + fen);
+    }
+
+    /** The Zobrist key from scratch; {@link #hash} must always equal it. */
+    long computeHash() {
+        long key = 0L;
+        for (int sq = 0; sq < 64; sq++) {
+            if (board[sq] != NO_PIECE) {
+                key ^= Zobrist.piece(board[sq], sq);
+            }
+        }
+        key ^= Zobrist.CASTLING[castlingRights];
+        if (epCapturable()) {
+            key ^= Zobrist.EP_FILE[Bitboards.col(epSquare)];
+        }
+        if (sideToMove == BLACK) {
+            key ^= Zobrist.SIDE;
+        }
+        return key;
+    }
+
+    /**
+     * Whether the side to move has a pawn next to the en-passant square. Only then is the file
+     * part of the key, so positions that differ by an unusable en-passant square still repeat.
+     */
+    boolean epCapturable() {
+        return epSquare >= 0 && (Attacks.pawnAttacks(sideToMove ^ 1, epSquare) & pieces(sideToMove, PAWN)) != 0;
+    }
+
+    String toFen() {
+        var sb = new StringBuilder(90);
+        for (int row = 7; row >= 0; row--) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int piece = pieceAt(col, row);
+                if (piece == NO_PIECE) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+                sb.append(FEN_PIECES.charAt(piece));
+            }
+            if (empty > 0) {
+                sb.append(empty);
+            }
+            if (row > 0) {
+                sb.append('/');
+            }
+        }
+        sb.append(sideToMove == WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            sb.append('-');
+        }
+        if ((castlingRights & WHITE_KINGSIDE) != 0) sb.append('K');
+        if ((castlingRights & WHITE_QUEENSIDE) != 0) sb.append('Q');
+        if ((castlingRights & BLACK_KINGSIDE) != 0) sb.append('k');
+        if ((castlingRights & BLACK_QUEENSIDE) != 0) sb.append('q');
+        sb.append(' ');
+        if (epSquare < 0) {
+            sb.append('-');
+        } else {
+            Move.appendSquare(sb, epSquare);
+        }
+        sb.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+        return sb.toString();
+    }
+
+    int pieceAt(int square) {
+        return board[square];
+    }
+
+    int pieceAt(int col, int row) {
+        return board[Bitboards.square(col, row)];
+    }
+
+    long pieces(int color, int type) {
+        return pieceBoards[piece(color, type)];
+    }
+
+    int kingSquare(int color) {
+        return Bitboards.lsb(pieceBoards[piece(color, KING)]);
+    }
+
+    boolean inCheck() {
+        return isAttacked(kingSquare(sideToMove), sideToMove ^ 1, occupied);
+    }
+
+    /** Pieces of both colours attacking {@code sq}, with sliders seeing through {@code occupied}. */
+    long attackersTo(int sq, long occupied) {
+        return (Attacks.pawnAttacks(WHITE, sq) & pieceBoards[piece(BLACK, PAWN)])
+                | (Attacks.pawnAttacks(BLACK, sq) & pieceBoards[piece(WHITE, PAWN)])
+                | (Attacks.KNIGHT[sq] & (pieceBoards[piece(WHITE, KNIGHT)] | pieceBoards[piece(BLACK, KNIGHT)]))
+                | (Attacks.KING[sq] & (pieceBoards[piece(WHITE, KING)] | pieceBoards[piece(BLACK, KING)]))
+                | (Attacks.bishopAttacks(sq, occupied) & (bishopsAndQueens(WHITE) | bishopsAndQueens(BLACK)))
+                | (Attacks.rookAttacks(sq, occupied) & (rooksAndQueens(WHITE) | rooksAndQueens(BLACK)));
+    }
+
+    boolean isAttacked(int sq, int byColor, long occupied) {
+        return (Attacks.pawnAttacks(byColor ^ 1, sq) & pieces(byColor, PAWN)) != 0
+                || (Attacks.KNIGHT[sq] & pieces(byColor, KNIGHT)) != 0
+                || (Attacks.KING[sq] & pieces(byColor, KING)) != 0
+                || (Attacks.bishopAttacks(sq, occupied) & bishopsAndQueens(byColor)) != 0
+                || (Attacks.rookAttacks(sq, occupied) & rooksAndQueens(byColor)) != 0;
+    }
+
+    long bishopsAndQueens(int color) {
+        return pieceBoards[piece(color, BISHOP)] | pieceBoards[piece(color, QUEEN)];
+    }
+
+    long rooksAndQueens(int color) {
+        return pieceBoards[piece(color, ROOK)] | pieceBoards[piece(color, QUEEN)];
+    }
+
+    /**
+     * Plays a move produced by {@link MoveGenerator} for the side to move, saving what
+     * {@link #unmakeMove} needs on the undo stack. Nothing is allocated.
+     */
+    void makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        int us = sideToMove;
+        int piece = board[from];
+
+        if (historySize == undoHash.length) {
+            ensureHistoryCapacity(historySize * 2);
+        }
+        int sp = historySize++;
+        undoCaptured[sp] = board[to];
+        undoCastling[sp] = castlingRights;
+        undoEpSquare[sp] = epSquare;
+        undoHalfmove[sp] = halfmoveClock;
+        undoHash[sp] = hash;
+
+        hash ^= Zobrist.CASTLING[castlingRights];
+        castlingRights &= CASTLING_MASK[from] & CASTLING_MASK[to];
+        hash ^= Zobrist.CASTLING[castlingRights];
+        if (epCapturable()) {
+            hash ^= Zobrist.EP_FILE[Bitboards.col(epSquare)];
+        }
+        epSquare = -1;
+        halfmoveClock++;
+
+        if (board[to] != NO_PIECE) {
+            remove(to);
+            halfmoveClock = 0;
+        }
+        shift(from, to);
+
+        if (typeOf(piece) == PAWN) {
+            halfmoveClock = 0;
+            if (flag == Move.DOUBLE_PUSH) {
+                epSquare = (from + to) >>> 1;
+            } else if (flag == Move.EN_PASSANT) {
+                remove(to ^ 8);
+            } else if (Move.promotion(move) != 0) {
+                remove(to);
+                put(piece(us, Move.promotion(move)), to);
+            }
+        } else if (flag == Move.CASTLING) {
+            if (to > from) {
+                shift(to + 1, to - 1);
+            } else {
+                shift(to - 2, to + 1);
+            }
+        }
+
+        sideToMove = us ^ 1;
+        hash ^= Zobrist.SIDE;
+        if (epCapturable()) {
+            hash ^= Zobrist.EP_FILE[Bitboards.col(epSquare)];
+        }
+        if (sideToMove == WHITE) {
+            fullmoveNumber++;
+        }
+    }
+
+    /** Takes back {@code move}, which must be the last move made. */
+    void unmakeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        if (sideToMove == WHITE) {
+            fullmoveNumber--;
+        }
+        sideToMove ^= 1;
+        int us = sideToMove;
+
+        if (flag == Move.CASTLING) {
+            if (to > from) {
+                shift(to - 1, to + 1);
+            } else {
+                shift(to + 1, to - 2);
+            }
+        } else if (Move.promotion(move) != 0) {
+            remove(to);
+            put(piece(us, PAWN), to);
+        }
+        shift(to, from);
+
+        int sp = --historySize;
+        int captured = undoCaptured[sp];
+        if (flag == Move.EN_PASSANT) {
+            put(piece(us ^ 1, PAWN), to ^ 8);
+        } else if (captured != NO_PIECE) {
+            put(captured, to);
+        }
+        castlingRights = undoCastling[sp];
+        epSquare = undoEpSquare[sp];
+        halfmoveClock = undoHalfmove[sp];
+        hash = undoHash[sp];
+    }
+
+    /**
+     * Passes the turn without moving, for null-move pruning. The halfmove clock restarts so
+     * that repetition checks never look back across the null move.
+     */
+    void makeNullMove() {
+        if (historySize == undoHash.length) {
+            ensureHistoryCapacity(historySize * 2);
+        }
+        int sp = historySize++;
+        undoCaptured[sp] = NO_PIECE;
+        undoCastling[sp] = castlingRights;
+        undoEpSquare[sp] = epSquare;
+        undoHalfmove[sp] = halfmoveClock;
+        undoHash[sp] = hash;
+
+        if (epCapturable()) {
+            hash ^= Zobrist.EP_FILE[Bitboards.col(epSquare)];
+        }
+        epSquare = -1;
+        halfmoveClock = 0;
+        sideToMove ^= 1;
+        hash ^= Zobrist.SIDE;
+    }
+
+    /** Takes back {@link #makeNullMove}, which must be the last move made. */
+    void unmakeNullMove() {
+        sideToMove ^= 1;
+        int sp = --historySize;
+        epSquare = undoEpSquare[sp];
+        halfmoveClock = undoHalfmove[sp];
+        hash = undoHash[sp];
+    }
+
+    /** Whether the current position already occurred since the last capture or pawn move. */
+    boolean isRepetition() {
+        int limit = Math.min(halfmoveClock, historySize);
+        for (int i = 4; i <= limit; i += 2) {
+            if (undoHash[historySize - i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether {@code color} has a piece other than its king and pawns. */
+    boolean hasNonPawnMaterial(int color) {
+        return (colorBoards[color] & ~pieces(color, PAWN) & ~pieces(color, KING)) != 0;
+    }
+
+    /** Neither side can mate: bare kings, or a single minor piece against a bare king. */
+    boolean isInsufficientMaterial() {
+        long heavyOrPawns = 0L;
+        for (int color = WHITE; color <= BLACK; color++) {
+            heavyOrPawns |= pieces(color, PAWN) | rooksAndQueens(color);
+        }
+        if (heavyOrPawns != 0) {
+            return false;
+        }
+        long minors = pieces(WHITE, KNIGHT) | pieces(BLACK, KNIGHT) | pieces(WHITE, BISHOP) | pieces(BLACK, BISHOP);
+        return Bitboards.count(minors) <= 1;
+    }
+
+    /** Zobrist key of the position {@code pliesAgo} moves back in the undo stack. */
+    long hashBefore(int pliesAgo) {
+        return undoHash[historySize - pliesAgo];
+    }
+
+    private void ensureHistoryCapacity(int capacity) {
+        if (capacity <= undoHash.length) {
+            return;
+        }
+        undoCaptured = Arrays.copyOf(undoCaptured, capacity);
+        undoCastling = Arrays.copyOf(undoCastling, capacity);
+        undoEpSquare = Arrays.copyOf(undoEpSquare, capacity);
+        undoHalfmove = Arrays.copyOf(undoHalfmove, capacity);
+        undoHash = Arrays.copyOf(undoHash, capacity);
+    }
+
+    void put(int piece, int square) {
+        long b = Bitboards.bit(square);
+        pieceBoards[piece] |= b;
+        colorBoards[colorOf(piece)] |= b;
+        occupied |= b;
+        board[square] = (byte) piece;
+        hash ^= Zobrist.piece(piece, square);
+        if (typeOf(piece) == PAWN) {
+            pawnHash ^= Zobrist.piece(piece, square);
+        }
+        mgScore += Evaluation.MG[piece * 64 + square];
+        egScore += Evaluation.EG[piece * 64 + square];
+        phase += Evaluation.PHASE_WEIGHTS[typeOf(piece)];
+    }
+
+    void remove(int square) {
+        int piece = board[square];
+        long b = Bitboards.bit(square);
+        pieceBoards[piece] &= ~b;
+        colorBoards[colorOf(piece)] &= ~b;
+        occupied &= ~b;
+        board[square] = (byte) NO_PIECE;
+        hash ^= Zobrist.piece(piece, square);
+        if (typeOf(piece) == PAWN) {
+            pawnHash ^= Zobrist.piece(piece, square);
+        }
+        mgScore -= Evaluation.MG[piece * 64 + square];
+        egScore -= Evaluation.EG[piece * 64 + square];
+        phase -= Evaluation.PHASE_WEIGHTS[typeOf(piece)];
+    }
+
+    /** Moves the piece on {@code from} to the empty square {@code to}. */
+    void shift(int from, int to) {
+        int piece = board[from];
+        long fromTo = Bitboards.bit(from) | Bitboards.bit(to);
+        pieceBoards[piece] ^= fromTo;
+        colorBoards[colorOf(piece)] ^= fromTo;
+        occupied ^= fromTo;
+        board[from] = (byte) NO_PIECE;
+        board[to] = (byte) piece;
+        hash ^= Zobrist.piece(piece, from) ^ Zobrist.piece(piece, to);
+        if (typeOf(piece) == PAWN) {
+            pawnHash ^= Zobrist.piece(piece, from) ^ Zobrist.piece(piece, to);
+        }
+        mgScore += Evaluation.MG[piece * 64 + to] - Evaluation.MG[piece * 64 + from];
+        egScore += Evaluation.EG[piece * 64 + to] - Evaluation.EG[piece * 64 + from];
+    }
+}
@@ -0,0 +1,520 @@
+package com.package1.chess;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Principal-variation alpha-beta search with iterative deepening and a quiescence search over
+ * captures that do not lose material by static exchange. One instance owns its own position
+ * and buffers and is driven by a single thread; nothing is allocated once a search is under
+ * way. Several instances can search the same root at once, sharing only the transposition
+ * table and a stop flag (Lazy SMP).
+ */
+final class Search {
+    static final int MAX_PLY = 128;
+    static final int INFINITE = 32000;
+    static final int MATE = 31000;
+    /** Scores beyond this are mates, counted in plies from the root. */
+    static final int MATE_BOUND = MATE - MAX_PLY;
+
+    private static final int HASH_MOVE_SCORE = 2_000_000;
+    private static final int CAPTURE_SCORE = 1_000_000;
+    private static final int KILLER_1_SCORE = 900_000;
+    private static final int KILLER_2_SCORE = 800_000;
+    private static final int COUNTER_MOVE_SCORE = 700_000;
+    /** Captures that lose material by static exchange go after every quiet move. */
+    private static final int LOSING_CAPTURE_SCORE = -1_000_000;
+    /** History scores stay within plus or minus this, well below the killer scores. */
+    private static final int HISTORY_MAX = 16384;
+    private static final int PAWN_TABLE_ENTRIES = 1 << 16;
+
+    private static final int ASPIRATION_MIN_DEPTH = 5;
+    private static final int ASPIRATION_WINDOW = 25;
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    private static final int REVERSE_FUTILITY_MAX_DEPTH = 6;
+    private static final int REVERSE_FUTILITY_MARGIN = 90;
+    /** How far below alpha the static evaluation must be to skip quiet moves, by remaining depth. */
+    private static final int[] FUTILITY_MARGINS = {0, 150, 300, 500};
+    private static final int LMR_MIN_DEPTH = 3;
+    /** Late-move reductions in plies, indexed {@code min(depth, 63) * 64 + min(moveNumber, 63)}. */
+    private static final int[] REDUCTIONS = new int[64 * 64];
+
+    static {
+        for (int depth = 1; depth < 64; depth++) {
+            for (int moveNumber = 1; moveNumber < 64; moveNumber++) {
+                REDUCTIONS[depth * 64 + moveNumber] = (int) (0.75 + Math.log(depth) * Math.log(moveNumber) / 2.25);
+            }
+        }
+    }
+
+    // helper threads skip some iterations so that they spread over different depths
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    private final TranspositionTable tt;
+    private final SearchOptions options;
+    private final int threadIndex;
+
+    private final Position position = new Position();
+    private final PawnTable pawnTable = new PawnTable(PAWN_TABLE_ENTRIES);
+    private final MoveList[] moveLists = new MoveList[MAX_PLY + 1];
+    private final int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private final int[] rootPv = new int[MAX_PLY + 1];
+    private int rootPvLength;
+    private int rootBestMove;
+
+    // quiet move ordering: two killers per ply, butterfly history indexed
+    // color * 4096 + from * 64 + to, and counter moves indexed by the previous move's piece and target
+    private final int[] killers = new int[MAX_PLY * 2];
+    private final int[] history = new int[2 * 64 * 64];
+    private final int[] counterMoves = new int[12 * 64];
+    private final int[] playedMoves = new int[MAX_PLY + 1];
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    private AtomicBoolean stop = new AtomicBoolean();
+    private boolean stopped;
+    private long nodes;
+    private long startNanos;
+    private TimeManager time;
+    private long nodeLimit;
+    // copied from the options when a search starts
+    private boolean nullMove;
+    private boolean lateMoveReductions;
+    private boolean reverseFutility;
+    private boolean futility;
+    private boolean aspirationWindows;
+    private Bitbases bitbases;
+
+    /** Thread 0 is the main search; higher indices are Lazy SMP helpers. */
+    Search(TranspositionTable tt, SearchOptions options, int threadIndex) {
+        this.tt = tt;
+        this.options = options;
+        this.threadIndex = threadIndex;
+        for (int i = 0; i <= MAX_PLY; i++) {
+            moveLists[i] = new MoveList();
+        }
+    }
+
+    long nodes() {
+        return nodes;
+    }
+
+    PawnTable pawnTable() {
+        return pawnTable;
+    }
+
+    /** Beta cutoffs in the main search since this instance was created. */
+    long cutoffs() {
+        return cutoffs;
+    }
+
+    /** Beta cutoffs produced by the first move searched; the closer to {@link #cutoffs}, the better the ordering. */
+    long firstMoveCutoffs() {
+        return firstMoveCutoffs;
+    }
+
+    /**
+     * Searches {@code root} by iterative deepening until a limit is hit or {@code stop} is set,
+     * and returns the best move of the last completed iteration, or {@link Move#NONE} if there
+     * are no legal moves. Hitting a limit sets {@code stop}, which halts every search sharing it.
+     * Time limits come from {@code time} alone; pass null to search by depth and nodes only.
+     */
+    int run(Position root, SearchLimits limits, TimeManager time, SearchListener listener, AtomicBoolean stop) {
+        position.copyFrom(root);
+        this.stop = stop;
+        stopped = false;
+        nodes = 0;
+        rootPvLength = 0;
+        Arrays.fill(killers, Move.NONE);
+        // keep what earlier searches learned, but let this one outweigh it
+        for (int i = 0; i < history.length; i++) {
+            history[i] /= 2;
+        }
+        startNanos = System.nanoTime();
+        this.time = time;
+        nodeLimit = limits.nodes > 0 ? limits.nodes : Long.MAX_VALUE;
+        nullMove = options.nullMove;
+        lateMoveReductions = options.lateMoveReductions;
+        reverseFutility = options.reverseFutility;
+        futility = options.futility;
+        aspirationWindows = options.aspirationWindows;
+        bitbases = options.bitbases;
+
+        MoveList rootMoves = moveLists[0];
+        MoveGenerator.generateLegal(position, rootMoves);
+        if (rootMoves.size() == 0) {
+            return Move.NONE;
+        }
+        rootBestMove = rootMoves.get(0);
+
+        int completedDepth = 0;
+        int previousScore = 0;
+        for (int depth = 1; depth <= Math.min(limits.depth, MAX_PLY - 1); depth++) {
+            if (threadIndex > 0) {
+                int i = (threadIndex - 1) % SKIP_SIZE.length;
+                if (((depth + SKIP_PHASE[i]) / SKIP_SIZE[i]) % 2 != 0) {
+                    continue;
+                }
+            }
+            int score = aspirationWindows && completedDepth >= ASPIRATION_MIN_DEPTH - 1
+                    ? aspirate(depth, previousScore)
+                    : negamax(depth, -INFINITE, INFINITE, 0);
+            if (stopped) {
+                break;
+            }
+            completedDepth = depth;
+            previousScore = score;
+            rootBestMove = pvTable[0][0];
+            rootPvLength = pvLength[0];
+            System.arraycopy(pvTable[0], 0, rootPv, 0, rootPvLength);
+            if (listener != null) {
+                listener.onIteration(depth, score, nodes, (System.nanoTime() - startNanos) / 1_000_000L,
+                        rootPv, rootPvLength);
+            }
+            if (Math.abs(score) >= MATE_BOUND && MATE - Math.abs(score) <= depth) {
+                break;
+            }
+            if (time != null && time.softLimitReached(rootBestMove, System.nanoTime())) {
+                break;
+            }
+        }
+        return rootBestMove;
+    }
+
+    /**
+     * Searches the root in a narrow window around the last iteration's score, widening it on
+     * the side that fails until the score falls inside.
+     */
+    private int aspirate(int depth, int previousScore) {
+        int window = ASPIRATION_WINDOW;
+        int alpha = Math.max(previousScore - window, -INFINITE);
+        int beta = Math.min(previousScore + window, INFINITE);
+        while (true) {
+            int score = negamax(depth, alpha, beta, 0);
+            if (stopped) {
+                return score;
+            }
+            window *= 2;
+            if (score <= alpha) {
+                alpha = Math.max(score - window, -INFINITE);
+            } else if (score >= beta) {
+                beta = Math.min(score + window, INFINITE);
+            } else {
+                return score;
+            }
+        }
+    }
+
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply);
+        }
+        if (checkStop()) {
+            return 0;
+        }
+        nodes++;
+        if (ply > 0 && (position.halfmoveClock >= 100 || position.isRepetition() || position.isInsufficientMaterial())) {
+            return 0;
+        }
+        // a known draw needs no search; known wins are left to it, as the tables do not say how to make progress
+        if (ply > 0 && bitbases != null && bitbases.probe(position) == Bitbases.DRAW) {
+            return 0;
+        }
+        if (ply >= MAX_PLY - 1) {
+            return Evaluation.evaluate(position, pawnTable);
+        }
+
+        boolean pvNode = beta - alpha > 1;
+        long entry = tt.probe(position.hash);
+        int hashMove = ply == 0 ? rootBestMove : TranspositionTable.move(entry);
+        if (entry != 0 && !pvNode && TranspositionTable.depth(entry) >= depth) {
+            int ttScore = TranspositionTable.score(entry, ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.BOUND_EXACT
+                    || (bound == TranspositionTable.BOUND_LOWER && ttScore >= beta)
+                    || (bound == TranspositionTable.BOUND_UPPER && ttScore <= alpha)) {
+                return ttScore;
+            }
+        }
+
+        boolean inCheck = position.inCheck();
+        if (inCheck) {
+            depth++;
+        }
+        int staticEval = inCheck ? -INFINITE : Evaluation.evaluate(position, pawnTable);
+        if (!pvNode && !inCheck && Math.abs(beta) < MATE_BOUND) {
+            // so far ahead that even a generous margin per ply cannot bring the score below beta
+            if (reverseFutility && depth <= REVERSE_FUTILITY_MAX_DEPTH
+                    && staticEval - REVERSE_FUTILITY_MARGIN * depth >= beta) {
+                return staticEval;
+            }
+            // give the opponent a free move; if we are still above beta, a real move will be too.
+            // Not with only king and pawns, where passing may be the only thing that would not lose
+            if (nullMove && depth >= NULL_MOVE_MIN_DEPTH && staticEval >= beta
+                    && playedMoves[ply - 1] != Move.NONE && position.hasNonPawnMaterial(position.sideToMove)) {
+                int reduction = 3 + depth / 6;
+                playedMoves[ply] = Move.NONE;
+                position.makeNullMove();
+                int score = -negamax(depth - 1 - reduction, -beta, -beta + 1, ply + 1);
+                position.unmakeNullMove();
+                if (stopped) {
+                    return 0;
+                }
+                if (score >= beta) {
+                    return score >= MATE_BOUND ? beta : score;
+                }
+            }
+        }
+        // quiet moves that cannot lift the score to alpha near the leaves are skipped
+        boolean futile = futility && !pvNode && !inCheck && depth < FUTILITY_MARGINS.length
+                && Math.abs(alpha) < MATE_BOUND && staticEval + FUTILITY_MARGINS[depth] <= alpha;
+
+        MoveList moves = moveLists[ply];
+        MoveGenerator.generateLegal(position, moves);
+        if (moves.size() == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(moves, hashMove, ply);
+
+        int originalAlpha = alpha;
+        int bestMove = Move.NONE;
+        int best = -INFINITE;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.pickNext(i);
+            boolean quiet = isQuiet(move);
+            playedMoves[ply] = move;
+            position.makeMove(move);
+            boolean givesCheck = position.inCheck();
+            if (futile && i > 0 && quiet && !givesCheck) {
+                position.unmakeMove(move);
+                best = Math.max(best, staticEval + FUTILITY_MARGINS[depth]);
+                continue;
+            }
+            int score;
+            if (i == 0) {
+                score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                // late quiet moves that are not killers or counter moves are searched shallower first
+                int reduction = 0;
+                if (lateMoveReductions && depth >= LMR_MIN_DEPTH && quiet && !inCheck && !givesCheck
+                        && moves.scores[i] < COUNTER_MOVE_SCORE) {
+                    reduction = REDUCTIONS[Math.min(depth, 63) * 64 + Math.min(i, 63)];
+                    if (pvNode) {
+                        reduction--;
+                    }
+                    reduction = Math.max(0, Math.min(reduction, depth - 2));
+                }
+                score = -negamax(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1);
+                if (reduction > 0 && score > alpha) {
+                    score = -negamax(depth - 1, -alpha - 1, -alpha, ply + 1);
+                }
+                if (score > alpha && score < beta) {
+                    score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+            position.unmakeMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    updatePv(ply, move);
+                    if (alpha >= beta) {
+                        cutoffs++;
+                        if (i == 0) {
+                            firstMoveCutoffs++;
+                        }
+                        if (isQuiet(move)) {
+                            updateQuietStats(moves, i, depth, ply);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        int bound = best >= beta ? TranspositionTable.BOUND_LOWER
+                : alpha > originalAlpha ? TranspositionTable.BOUND_EXACT : TranspositionTable.BOUND_UPPER;
+        tt.store(position.hash, bestMove, best, depth, bound, ply);
+        return best;
+    }
+
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if (checkStop()) {
+            return 0;
+        }
+        nodes++;
+        if (ply >= MAX_PLY - 1) {
+            return Evaluation.evaluate(position, pawnTable);
+        }
+
+        boolean inCheck = position.inCheck();
+        MoveList moves = moveLists[ply];
+        int best;
+        if (inCheck) {
+            best = -INFINITE;
+            MoveGenerator.generateLegal(position, moves);
+            if (moves.size() == 0) {
+                return -MATE + ply;
+            }
+        } else {
+            best = Evaluation.evaluate(position, pawnTable);
+            if (best >= beta) {
+                return best;
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+            MoveGenerator.generateNoisy(position, moves);
+        }
+        scoreMoves(moves, Move.NONE, ply);
+
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.pickNext(i);
+            // losing captures sort last, so once one comes up only losing captures are left
+            if (!inCheck && moves.scores[i] < 0) {
+                break;
+            }
+            playedMoves[ply] = move;
+            position.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            position.unmakeMove(move);
+            if (stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Hash move first, then captures that do not lose material by most valuable victim and least
+     * valuable attacker, then the killers, the counter move and the remaining quiet moves by
+     * history, and losing captures last.
+     */
+    private void scoreMoves(MoveList moves, int hashMove, int ply) {
+        int killer1 = killers[ply * 2];
+        int killer2 = killers[ply * 2 + 1];
+        int counter = counterMove(ply);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            int score;
+            if (move == hashMove) {
+                score = HASH_MOVE_SCORE;
+            } else if (!isQuiet(move)) {
+                score = (See.seeGe(position, move, 0) ? CAPTURE_SCORE : LOSING_CAPTURE_SCORE) + captureScore(move);
+            } else if (move == killer1) {
+                score = KILLER_1_SCORE;
+            } else if (move == killer2) {
+                score = KILLER_2_SCORE;
+            } else if (move == counter) {
+                score = COUNTER_MOVE_SCORE;
+            } else {
+                score = history[historyIndex(move)];
+            }
+            moves.scores[i] = score;
+        }
+    }
+
+    // the reply that last refuted the opponent's previous move, looked up by the piece it moved and where to
+    private int counterMove(int ply) {
+        if (ply == 0) {
+            return Move.NONE;
+        }
+        int previous = playedMoves[ply - 1];
+        if (previous == Move.NONE) {
+            return Move.NONE;
+        }
+        int to = Move.to(previous);
+        return counterMoves[position.pieceAt(to) * 64 + to];
+    }
+
+    /**
+     * Rewards the quiet move at {@code index} that caused a cutoff and penalizes the quiet moves
+     * searched before it, which {@link MoveList#pickNext} has left in front of it.
+     */
+    private void updateQuietStats(MoveList moves, int index, int depth, int ply) {
+        int move = moves.get(index);
+        if (killers[ply * 2] != move) {
+            killers[ply * 2 + 1] = killers[ply * 2];
+            killers[ply * 2] = move;
+        }
+        if (ply > 0 && playedMoves[ply - 1] != Move.NONE) {
+            int to = Move.to(playedMoves[ply - 1]);
+            counterMoves[position.pieceAt(to) * 64 + to] = move;
+        }
+        int bonus = Math.min(depth * depth, 400);
+        addHistory(historyIndex(move), bonus);
+        for (int i = 0; i < index; i++) {
+            int tried = moves.get(i);
+            if (isQuiet(tried)) {
+                addHistory(historyIndex(tried), -bonus);
+            }
+        }
+    }
+
+    // scales each update by the distance left to the bound, so scores saturate instead of overflowing
+    private void addHistory(int index, int bonus) {
+        history[index] += bonus - history[index] * Math.abs(bonus) / HISTORY_MAX;
+    }
+
+    private int historyIndex(int move) {
+        return position.sideToMove * 4096 + Move.from(move) * 64 + Move.to(move);
+    }
+
+    private boolean isQuiet(int move) {
+        return position.pieceAt(Move.to(move)) == Position.NO_PIECE
+                && Move.flag(move) != Move.EN_PASSANT && Move.promotion(move) != Position.QUEEN;
+    }
+
+    // most valuable victim, least valuable attacker; a queen promotion counts as winning a queen
+    private int captureScore(int move) {
+        int victim = position.pieceAt(Move.to(move));
+        int score = 0;
+        if (victim != Position.NO_PIECE) {
+            score = Evaluation.VALUES[Position.typeOf(victim)] * 10
+                    - Evaluation.VALUES[Position.typeOf(position.pieceAt(Move.from(move)))] / 10;
+        } else if (Move.flag(move) == Move.EN_PASSANT) {
+            score = Evaluation.VALUES[Position.PAWN] * 10 - Evaluation.VALUES[Position.PAWN] / 10;
+        }
+        if (Move.promotion(move) == Position.QUEEN) {
+            score += Evaluation.VALUES[Position.QUEEN] * 10;
+        }
+        return score;
+    }
+
+    private void updatePv(int ply, int move) {
+        int[] row = pvTable[ply];
+        row[ply] = move;
+        int childLength = pvLength[ply + 1];
+        System.arraycopy(pvTable[ply + 1], ply + 1, row, ply + 1, childLength - ply - 1);
+        pvLength[ply] = Math.max(childLength, ply + 1);
+    }
+
+    // polls the clock every 256 nodes, well under a millisecond; the shared flag itself is read on every call
+    private boolean checkStop() {
+        if ((nodes & 255) == 0
+                && ((time != null && time.hardLimitReached(System.nanoTime())) || nodes >= nodeLimit)) {
+            stop.set(true);
+        }
+        if (stop.get()) {
+            stopped = true;
+        }
+        return stopped;
+    }
+}
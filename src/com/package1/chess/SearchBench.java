@@ -0,0 +1,70 @@
+package com.package1.chess;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures nodes to depth over the perft reference positions with every selective search
+ * technique on, and then with each one switched off in turn, so the tree each saves shows up
+ * as the ratio to the first line. Every run starts from an empty transposition table.
+ */
+final class SearchBench {
+    private static final String[] CONFIGS = {
+            "all on", "no null move", "no LMR", "no reverse futility", "no futility", "no aspiration"
+    };
+
+    private SearchBench() {
+    }
+
+    /** {@code bench [depth] [hashMb]}. */
+    static int run(String[] args) throws InterruptedException, ExecutionException {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int hashMb = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        var engine = new Engine(hashMb, 1);
+        var position = new Position();
+        long baseline = 0;
+        System.out.println("nodes to depth " + depth + " over " + Perft.SUITE_FENS.length + " positions");
+        for (int config = 0; config < CONFIGS.length; config++) {
+            configure(engine.options(), config);
+            long nodes = 0;
+            long start = System.nanoTime();
+            for (String fen : Perft.SUITE_FENS) {
+                position.setFen(fen);
+                nodes += nodesToDepth(engine, position, depth);
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000L;
+            if (config == 0) {
+                baseline = nodes;
+            }
+            System.out.println(String.format("%-20s %12d nodes %8d ms  x%.2f",
+                    CONFIGS[config], nodes, millis, (double) nodes / Math.max(1, baseline)));
+        }
+        System.out.println(String.format("first-move cutoffs: %.1f%%", 100 * engine.firstMoveCutoffRate()));
+        return 0;
+    }
+
+    private static void configure(SearchOptions options, int config) {
+        options.nullMove = config != 1;
+        options.lateMoveReductions = config != 2;
+        options.reverseFutility = config != 3;
+        options.futility = config != 4;
+        options.aspirationWindows = config != 5;
+    }
+
+    private static long nodesToDepth(Engine engine, Position position, int depth)
+            throws InterruptedException, ExecutionException {
+        engine.clearHash();
+        long[] nodes = new long[1];
+        engine.go(position, SearchLimits.depth(depth), new SearchListener() {
+            @Override
+            public void onIteration(int depth, int score, long total, long elapsedMillis, int[] pv, int pvLength) {
+                nodes[0] = total;
+            }
+        }, new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+            }
+        }).get();
+        return nodes[0];
+    }
+}
@@ -0,0 +1,38 @@
+package com.package1.chess;
+
+/**
+ * When a search should stop. Zero means no limit of that kind. A clock ({@code timeMillis} and
+ * the rest) is turned into a time budget by {@link TimeManager}; {@code moveTimeMillis} wins
+ * over it when both are set.
+ */
+final class SearchLimits {
+    int depth = Search.MAX_PLY - 1;
+    long moveTimeMillis;
+    long nodes;
+    /** Time left on the side to move's clock. */
+    long timeMillis;
+    long incrementMillis;
+    /** Moves until the next time control, zero for sudden death. */
+    int movesToGo;
+    /** Search without limits until {@link Engine#ponderHit}. */
+    boolean ponder;
+
+    static SearchLimits depth(int depth) {
+        var limits = new SearchLimits();
+        limits.depth = depth;
+        return limits;
+    }
+
+    static SearchLimits clock(long timeMillis, long incrementMillis) {
+        var limits = new SearchLimits();
+        limits.timeMillis = timeMillis;
+        limits.incrementMillis = incrementMillis;
+        return limits;
+    }
+
+    static SearchLimits moveTime(long millis) {
+        var limits = new SearchLimits();
+        limits.moveTimeMillis = millis;
+        return limits;
+    }
+}
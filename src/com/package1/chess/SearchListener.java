@@ -0,0 +1,10 @@
+package com.package1.chess;
+
+/** Receives progress from a running search. Called on the search thread, so keep it short. */
+interface SearchListener {
+    /**
+     * Reports a completed iteration. {@code pv} is only valid for the duration of the call and
+     * its first {@code pvLength} entries hold the principal variation.
+     */
+    void onIteration(int depth, int score, long nodes, long elapsedMillis, int[] pv, int pvLength);
+}
@@ -0,0 +1,16 @@
+package com.package1.chess;
+
+/**
+ * Switches for the selective parts of the search, so each can be turned off to measure what it
+ * is worth in nodes to depth and in strength. All are on by default. A search reads them once
+ * when it starts, so changes take effect from the next search.
+ */
+final class SearchOptions {
+    boolean nullMove = true;
+    boolean lateMoveReductions = true;
+    boolean reverseFutility = true;
+    boolean futility = true;
+    boolean aspirationWindows = true;
+    /** Endgame tables consulted inside the tree, or null. */
+    Bitbases bitbases;
+}
@@ -0,0 +1,96 @@
+package com.package1.chess;
+
+/**
+ * Static exchange evaluation: plays out the captures on one square, each side always
+ * recapturing with its least valuable attacker, and decides whether the first move comes out
+ * ahead. Works on a copy of the occupancy bitboard only, so sliders hidden behind a piece that
+ * has just captured (x-rays) join the exchange, and nothing is allocated.
+ *
+ * Pins are ignored, as usual for SEE; the result is an estimate used for ordering and pruning.
+ */
+final class See {
+    // least valuable first, the order in which attackers join the exchange
+    private static final int[] ATTACKER_ORDER = {
+            Position.PAWN, Position.KNIGHT, Position.BISHOP, Position.ROOK, Position.QUEEN, Position.KING
+    };
+
+    private See() {
+    }
+
+    /**
+     * Returns whether {@code move} wins at least {@code threshold} centipawns once every
+     * profitable recapture on its target square has been played.
+     */
+    static boolean seeGe(Position p, int move, int threshold) {
+        if (Move.flag(move) == Move.CASTLING) {
+            return threshold <= 0;
+        }
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int promotion = Move.promotion(move);
+        long occupied = p.occupied ^ Bitboards.bit(from) ^ Bitboards.bit(to);
+
+        int victim = p.pieceAt(to);
+        int swap = victim == Position.NO_PIECE ? 0 : Evaluation.VALUES[Position.typeOf(victim)];
+        if (Move.flag(move) == Move.EN_PASSANT) {
+            swap = Evaluation.VALUES[Position.PAWN];
+            occupied ^= Bitboards.bit(p.sideToMove == Position.WHITE ? to - 8 : to + 8);
+        }
+        int mover = promotion != 0 ? promotion : Position.typeOf(p.pieceAt(from));
+        if (promotion != 0) {
+            swap += Evaluation.VALUES[promotion] - Evaluation.VALUES[Position.PAWN];
+        }
+
+        // swap is what the side to move has won so far, less the threshold; it must stay ahead
+        // after the opponent takes back, and the opponent after we take back, and so on
+        swap -= threshold;
+        if (swap < 0) {
+            return false;
+        }
+        swap = Evaluation.VALUES[mover] - swap;
+        if (swap <= 0) {
+            return true;
+        }
+
+        long diagonal = p.bishopsAndQueens(Position.WHITE) | p.bishopsAndQueens(Position.BLACK);
+        long straight = p.rooksAndQueens(Position.WHITE) | p.rooksAndQueens(Position.BLACK);
+        long attackers = p.attackersTo(to, occupied) & occupied;
+        int side = p.sideToMove;
+        int result = 1;
+        while (true) {
+            side ^= 1;
+            attackers &= occupied;
+            long ours = attackers & p.colorBoards[side];
+            if (ours == 0) {
+                break;
+            }
+            result ^= 1;
+
+            int type = Position.KING;
+            long candidates = 0L;
+            for (int t : ATTACKER_ORDER) {
+                candidates = ours & p.pieces(side, t);
+                if (candidates != 0) {
+                    type = t;
+                    break;
+                }
+            }
+            if (type == Position.KING) {
+                // the king may only take last: if the other side still has an attacker, it cannot
+                return ((attackers & ~p.colorBoards[side]) != 0 ? result ^ 1 : result) != 0;
+            }
+            swap = Evaluation.VALUES[type] - swap;
+            if (swap < result) {
+                break;
+            }
+            occupied ^= Long.lowestOneBit(candidates);
+            if (type == Position.PAWN || type == Position.BISHOP || type == Position.QUEEN) {
+                attackers |= Attacks.bishopAttacks(to, occupied) & diagonal;
+            }
+            if (type == Position.ROOK || type == Position.QUEEN) {
+                attackers |= Attacks.rookAttacks(to, occupied) & straight;
+            }
+        }
+        return result != 0;
+    }
+}
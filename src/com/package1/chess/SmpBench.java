@@ -0,0 +1,52 @@
+package com.package1.chess;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures Lazy SMP scaling as time-to-depth: every bench position is searched to the same
+ * fixed depth with one thread and then with N threads, each run starting from an empty
+ * transposition table, and the speedup is the ratio of the two times.
+ */
+final class SmpBench {
+
+    private SmpBench() {
+    }
+
+    /** {@code smp [threads] [depth] [hashMb]}; threads defaults to the number of cores. */
+    static int run(String[] args) throws InterruptedException, ExecutionException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int hashMb = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        var single = new Engine(hashMb, 1);
+        var parallel = new Engine(hashMb, threads);
+        var position = new Position();
+        double logSpeedups = 0;
+        System.out.println("time to depth " + depth + ", 1 thread vs " + threads + " threads");
+        for (String fen : Perft.SUITE_FENS) {
+            position.setFen(fen);
+            long oneThread = timeToDepth(single, position, depth);
+            long nThreads = timeToDepth(parallel, position, depth);
+            double speedup = (double) oneThread / Math.max(1, nThreads);
+            logSpeedups += Math.log(speedup);
+            System.out.println(String.format("%8d ms %8d ms  x%.2f  %s", oneThread, nThreads, speedup, fen));
+        }
+        System.out.println(String.format("geometric mean speedup: x%.2f",
+                Math.exp(logSpeedups / Perft.SUITE_FENS.length)));
+        System.out.println(String.format("pawn hash hit rate: %.1f%%", 100 * single.pawnHashHitRate()));
+        System.out.println(String.format("first-move cutoffs: %.1f%%", 100 * single.firstMoveCutoffRate()));
+        return 0;
+    }
+
+    private static long timeToDepth(Engine engine, Position position, int depth)
+            throws InterruptedException, ExecutionException {
+        engine.clearHash();
+        long start = System.nanoTime();
+        engine.go(position, SearchLimits.depth(depth), null, new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+            }
+        }).get();
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+}
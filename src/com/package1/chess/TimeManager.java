@@ -0,0 +1,83 @@
+package com.package1.chess;
+
+/**
+ * Decides how long the main search thread may think about one move.
+ *
+ * Playing on a clock, there are two limits. The soft limit is checked between iterations: no
+ * new iteration starts once it has passed. It is stretched while the best move keeps changing
+ * and shrunk once the same move has survived several iterations. The hard limit is checked
+ * inside the search and ends it mid-iteration. With a fixed move time both limits are that
+ * time. A ponder search has no limits until {@link #ponderHit}, when the clock starts.
+ *
+ * One instance is made per search, before the search thread starts, so a ponderhit can never
+ * arrive too early to be seen.
+ */
+final class TimeManager {
+    /** Kept back from every clock for the GUI and the pipe. */
+    static final long MOVE_OVERHEAD_MILLIS = 30;
+    /** Moves assumed left in the game when the time control does not say. */
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    /** Soft limit scale by how many iterations in a row returned the same best move. */
+    private static final double[] STABILITY_SCALE = {2.0, 1.4, 1.1, 0.9, 0.7, 0.5};
+
+    private final long softNanos;
+    private final long hardNanos;
+    private final boolean flexible;
+    private long startNanos;
+    // written by the thread that reports ponderhit, read by the search thread
+    private volatile boolean clockRunning;
+    private int lastBestMove;
+    private int stableIterations;
+
+    /** Limits for a search whose clock starts at {@code nowNanos}. */
+    TimeManager(SearchLimits limits, long nowNanos) {
+        startNanos = nowNanos;
+        lastBestMove = Move.NONE;
+        if (limits.moveTimeMillis > 0) {
+            softNanos = limits.moveTimeMillis * 1_000_000L;
+            hardNanos = softNanos;
+        } else if (limits.timeMillis > 0) {
+            long available = Math.max(1, limits.timeMillis - MOVE_OVERHEAD_MILLIS);
+            int movesToGo = limits.movesToGo > 0 ? limits.movesToGo : DEFAULT_MOVES_TO_GO;
+            long soft = available / movesToGo + limits.incrementMillis * 3 / 4;
+            // never bet more than a fraction of the clock on one move, unless it is the last before the control
+            long hard = Math.min(soft * 5, movesToGo == 1 ? available : available / 3);
+            softNanos = Math.min(soft, hard) * 1_000_000L;
+            hardNanos = hard * 1_000_000L;
+        } else {
+            softNanos = Long.MAX_VALUE;
+            hardNanos = Long.MAX_VALUE;
+        }
+        flexible = limits.moveTimeMillis == 0 && limits.timeMillis > 0;
+        clockRunning = !limits.ponder;
+    }
+
+    /** The opponent played the move we pondered on: from now on the limits count. */
+    void ponderHit(long nowNanos) {
+        startNanos = nowNanos;
+        clockRunning = true;
+    }
+
+    /** Checked inside the search; true once the hard limit has passed. */
+    boolean hardLimitReached(long nowNanos) {
+        return clockRunning && nowNanos - startNanos >= hardNanos;
+    }
+
+    /**
+     * Checked after each completed iteration with its best move; true if no further iteration
+     * should start.
+     */
+    boolean softLimitReached(int bestMove, long nowNanos) {
+        if (bestMove == lastBestMove) {
+            stableIterations++;
+        } else {
+            stableIterations = 0;
+            lastBestMove = bestMove;
+        }
+        if (!clockRunning) {
+            return false;
+        }
+        double scale = flexible ? STABILITY_SCALE[Math.min(stableIterations, STABILITY_SCALE.length - 1)] : 1.0;
+        return nowNanos - startNanos >= (long) (softNanos * scale);
+    }
+}
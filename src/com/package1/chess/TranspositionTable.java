@@ -0,0 +1,143 @@
+package com.package1.chess;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size transposition table shared by all search threads without locks.
+ *
+ * Entries live in one {@code long[]}, two longs each: the Zobrist key xor the data, then the
+ * data. A reader only trusts an entry whose two halves xor back to its own key, so an entry torn
+ * by two threads writing at once reads as a miss rather than as wrong data. Four entries make a
+ * 64-byte bucket; a store replaces the entry for the same key, otherwise the shallowest entry,
+ * counting entries left over from earlier searches as shallower the older they are.
+ *
+ * Data layout: bits 0-16 move, 17-32 score, 33-40 depth, 41-42 bound, 43-48 search generation.
+ */
+final class TranspositionTable {
+    static final int BOUND_NONE = 0;
+    static final int BOUND_UPPER = 1;
+    static final int BOUND_LOWER = 2;
+    static final int BOUND_EXACT = 3;
+
+    private static final int ENTRIES_PER_BUCKET = 4;
+    private static final int LONGS_PER_BUCKET = ENTRIES_PER_BUCKET * 2;
+    private static final int AGE_MASK = 63;
+
+    private final long[] table;
+    private final int bucketMask;
+    private volatile int generation;
+
+    TranspositionTable(int megabytes) {
+        long buckets = Math.max(1L, (long) megabytes * 1024 * 1024 / (LONGS_PER_BUCKET * 8L));
+        buckets = Long.highestOneBit(Math.min(buckets, Integer.MAX_VALUE / LONGS_PER_BUCKET));
+        table = new long[(int) buckets * LONGS_PER_BUCKET];
+        bucketMask = (int) buckets - 1;
+    }
+
+    /** Marks the start of a new search so older entries become the first to be replaced. */
+    void newSearch() {
+        generation = (generation + 1) & AGE_MASK;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0L);
+        generation = 0;
+    }
+
+    /** Returns the data stored for {@code key}, or 0 on a miss. */
+    long probe(long key) {
+        int base = bucketIndex(key);
+        for (int i = base; i < base + LONGS_PER_BUCKET; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0L;
+    }
+
+    /** Scores are stored relative to the node, so mate scores stay valid at any ply. */
+    void store(long key, int move, int score, int depth, int bound, int ply) {
+        int base = bucketIndex(key);
+        int gen = generation;
+        int target = base;
+        int worst = Integer.MAX_VALUE;
+        for (int i = base; i < base + LONGS_PER_BUCKET; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key || data == 0) {
+                target = i;
+                if (move == Move.NONE && data != 0) {
+                    move = move(data);
+                }
+                break;
+            }
+            int value = depth(data) - 8 * ((gen - age(data)) & AGE_MASK);
+            if (value < worst) {
+                worst = value;
+                target = i;
+            }
+        }
+        long data = (move & 0x1FFFFL)
+                | ((long) (toStored(score, ply) & 0xFFFF) << 17)
+                | ((long) (Math.max(depth, 0) & 0xFF) << 33)
+                | ((long) bound << 41)
+                | ((long) gen << 43);
+        table[target] = key ^ data;
+        table[target + 1] = data;
+    }
+
+    /** Per-mille of a sample of entries written during the current search. */
+    int hashfull() {
+        int gen = generation;
+        int sample = Math.min(1000, table.length / 2);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            long data = table[i * 2 + 1];
+            if (data != 0 && age(data) == gen) {
+                used++;
+            }
+        }
+        return sample == 0 ? 0 : used * 1000 / sample;
+    }
+
+    static int move(long data) {
+        return (int) (data & 0x1FFFF);
+    }
+
+    static int score(long data, int ply) {
+        int stored = (short) (data >>> 17);
+        if (stored >= Search.MATE_BOUND) {
+            return stored - ply;
+        }
+        if (stored <= -Search.MATE_BOUND) {
+            return stored + ply;
+        }
+        return stored;
+    }
+
+    static int depth(long data) {
+        return (int) (data >>> 33) & 0xFF;
+    }
+
+    static int bound(long data) {
+        return (int) (data >>> 41) & 3;
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 43) & AGE_MASK;
+    }
+
+    private static int toStored(int score, int ply) {
+        if (score >= Search.MATE_BOUND) {
+            return score + ply;
+        }
+        if (score <= -Search.MATE_BOUND) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private int bucketIndex(long key) {
+        return ((int) (key >>> 32) & bucketMask) * LONGS_PER_BUCKET;
+    }
+}
@@ -0,0 +1,415 @@
+package com.package1.chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Universal Chess Interface over stdin and stdout, for GUIs and tournament managers.
+ *
+ * Commands are read on the calling thread, and {@code stop}, {@code ponderhit} and
+ * {@code isready} are answered at once while the engine thinks; commands that change the engine
+ * wait for the running search first. Searches run on the engine's threads and
+ * print their {@code info} and {@code bestmove} lines from there. The engine and its hash table
+ * are only created when first needed, so the {@code uci} handshake is answered at once.
+ */
+final class Uci {
+    private static final String NAME = "ChessGame";
+    private static final int MAX_HASH_MB = 4096;
+    private static final int MAX_THREADS = 256;
+
+    private final BufferedReader in;
+    private final PrintStream out;
+    private ChessModel model = new ChessModel();
+    private final SearchOptions options = new SearchOptions();
+    private Engine engine;
+    private int hashMb = Engine.DEFAULT_HASH_MB;
+    private int threads = 1;
+    private PolyglotBook book;
+    private boolean ownBook;
+    private Future<?> search;
+
+    // guarded by this: while a ponder or infinite search runs, bestmove waits for stop or ponderhit
+    private boolean holdBestMove;
+    private int pendingBestMove = Move.NONE;
+    private boolean bestMovePending;
+
+    Uci(BufferedReader in, PrintStream out) {
+        this.in = in;
+        this.out = out;
+        model.reset();
+    }
+
+    static int run(String[] args) throws IOException {
+        var uci = new Uci(new BufferedReader(new InputStreamReader(System.in)), System.out);
+        uci.loop();
+        return 0;
+    }
+
+    void loop() throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens[0].equals("quit")) {
+                stop();
+                break;
+            }
+            try {
+                handle(tokens, line.trim());
+            } catch (IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+            } catch (ArrayIndexOutOfBoundsException e) {
+                send("info string missing value in: " + line.trim());
+            } catch (RuntimeException e) {
+                // a bad command must not end the session the GUI is relying on
+                e.printStackTrace();
+                send("info string error in: " + line.trim());
+            }
+        }
+        waitForSearch();
+    }
+
+    private void handle(String[] tokens, String line) {
+        switch (tokens[0]) {
+            case "uci":
+                send("id name " + NAME);
+                send("id author the ChessGame authors");
+                send("option name Hash type spin default " + Engine.DEFAULT_HASH_MB + " min 1 max " + MAX_HASH_MB);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name Ponder type check default false");
+                send("option name OwnBook type check default false");
+                send("option name BookFile type string default <empty>");
+                send("option name NullMove type check default true");
+                send("option name LateMoveReductions type check default true");
+                send("option name ReverseFutility type check default true");
+                send("option name Futility type check default true");
+                send("option name AspirationWindows type check default true");
+                send("option name BitbaseDir type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                engine();
+                send("readyok");
+                break;
+            case "ucinewgame":
+                waitForSearch();
+                engine().clearHash();
+                break;
+            case "setoption":
+                setOption(line);
+                break;
+            case "position":
+                position(tokens);
+                break;
+            case "go":
+                go(tokens);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "ponderhit":
+                ponderHit();
+                break;
+            default:
+                // unknown commands are ignored, as the protocol asks
+                break;
+        }
+    }
+
+    private void setOption(String line) {
+        int nameAt = line.indexOf(" name ");
+        int valueAt = line.indexOf(" value ");
+        if (nameAt < 0) {
+            throw new IllegalArgumentException("setoption without a name");
+        }
+        String name = (valueAt < 0 ? line.substring(nameAt + 6) : line.substring(nameAt + 6, valueAt)).trim();
+        String value = valueAt < 0 ? "" : line.substring(valueAt + 7).trim();
+        waitForSearch();
+        switch (name.toLowerCase()) {
+            case "hash":
+                hashMb = Math.max(1, Math.min(MAX_HASH_MB, parseInt(value)));
+                if (engine != null) {
+                    engine.setHashSize(hashMb);
+                }
+                break;
+            case "threads":
+                threads = Math.max(1, Math.min(MAX_THREADS, parseInt(value)));
+                if (engine != null) {
+                    engine.setThreads(threads);
+                }
+                break;
+            case "ponder":
+                break;
+            case "ownbook":
+                ownBook = Boolean.parseBoolean(value);
+                updateBook();
+                break;
+            case "bookfile":
+                openBook(value);
+                updateBook();
+                break;
+            case "nullmove":
+                options.nullMove = Boolean.parseBoolean(value);
+                break;
+            case "latemovereductions":
+                options.lateMoveReductions = Boolean.parseBoolean(value);
+                break;
+            case "reversefutility":
+                options.reverseFutility = Boolean.parseBoolean(value);
+                break;
+            case "futility":
+                options.futility = Boolean.parseBoolean(value);
+                break;
+            case "aspirationwindows":
+                options.aspirationWindows = Boolean.parseBoolean(value);
+                break;
+            case "bitbasedir":
+                loadBitbases(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + name);
+        }
+    }
+
+    private void openBook(String file) {
+        if (book != null) {
+            try {
+                book.close();
+            } catch (IOException e) {
+                send("info string " + e.getMessage());
+            }
+            book = null;
+        }
+        if (file.isEmpty() || file.equals("<empty>")) {
+            return;
+        }
+        try {
+            book = PolyglotBook.open(Path.of(file));
+            send("info string book " + file + " with " + book.entries() + " entries");
+        } catch (IOException e) {
+            send("info string no book: " + e.getMessage());
+        }
+    }
+
+    private void loadBitbases(String dir) {
+        options.bitbases = null;
+        if (dir.isEmpty() || dir.equals("<empty>")) {
+            return;
+        }
+        try {
+            options.bitbases = Bitbases.load(Path.of(dir));
+            send("info string bitbases from " + dir);
+        } catch (IOException e) {
+            send("info string no bitbases: " + e.getMessage());
+        }
+    }
+
+    private void updateBook() {
+        if (engine != null) {
+            engine.setBook(ownBook ? book : null);
+        }
+    }
+
+    // built aside and only then taken on, so a bad fen or move keeps the previous position
+    private void position(String[] tokens) {
+        var model = new ChessModel();
+        int i = 1;
+        if (i < tokens.length && tokens[i].equals("startpos")) {
+            model.reset();
+            i++;
+        } else if (i < tokens.length && tokens[i].equals("fen")) {
+            var fen = new StringBuilder();
+            for (i++; i < tokens.length && !tokens[i].equals("moves"); i++) {
+                fen.append(tokens[i]).append(' ');
+            }
+            model.setFen(fen.toString().trim());
+        } else {
+            throw new IllegalArgumentException("position needs startpos or fen");
+        }
+        if (i < tokens.length && tokens[i].equals("moves")) {
+            for (i++; i < tokens.length; i++) {
+                int move = model.findLegalMove(tokens[i]);
+                if (move == Move.NONE) {
+                    throw new IllegalArgumentException("illegal move " + tokens[i]);
+                }
+                model.makeMove(move);
+            }
+        }
+        this.model = model;
+    }
+
+    private void go(String[] tokens) {
+        var limits = new SearchLimits();
+        boolean infinite = false;
+        boolean white = model.playerInTurn() == Player.WHITE;
+        for (int i = 1; i < tokens.length; i++) {
+            switch (tokens[i]) {
+                case "depth":
+                    limits.depth = Math.max(1, Math.min(Search.MAX_PLY - 1, parseInt(tokens[++i])));
+                    break;
+                case "nodes":
+                    limits.nodes = parseLong(tokens[++i]);
+                    break;
+                case "movetime":
+                    limits.moveTimeMillis = Math.max(1, parseLong(tokens[++i]) - TimeManager.MOVE_OVERHEAD_MILLIS);
+                    break;
+                case "wtime":
+                case "btime": {
+                    long value = parseLong(tokens[++i]);
+                    if (tokens[i - 1].charAt(0) == (white ? 'w' : 'b')) {
+                        limits.timeMillis = value;
+                    }
+                    break;
+                }
+                case "winc":
+                case "binc": {
+                    long value = parseLong(tokens[++i]);
+                    if (tokens[i - 1].charAt(0) == (white ? 'w' : 'b')) {
+                        limits.incrementMillis = value;
+                    }
+                    break;
+                }
+                case "movestogo":
+                    limits.movesToGo = parseInt(tokens[++i]);
+                    break;
+                case "ponder":
+                    limits.ponder = true;
+                    break;
+                case "infinite":
+                    infinite = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (infinite) {
+            limits.timeMillis = 0;
+            limits.moveTimeMillis = 0;
+        }
+
+        waitForSearch();
+        synchronized (this) {
+            holdBestMove = limits.ponder || infinite;
+            bestMovePending = false;
+        }
+        search = engine().go(model.positionCopy(), limits, new SearchListener() {
+            @Override
+            public void onIteration(int depth, int score, long nodes, long elapsedMillis, int[] pv, int pvLength) {
+                sendInfo(depth, score, nodes, elapsedMillis, pv, pvLength);
+            }
+        }, new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+                bestMove(move);
+            }
+        });
+    }
+
+    private void stop() {
+        if (engine != null) {
+            engine.stop();
+        }
+        releaseBestMove();
+    }
+
+    // the search carries on under its clock, and its bestmove is no longer held back
+    private void ponderHit() {
+        if (engine != null) {
+            engine.ponderHit();
+        }
+        releaseBestMove();
+    }
+
+    private synchronized void bestMove(int move) {
+        if (holdBestMove) {
+            pendingBestMove = move;
+            bestMovePending = true;
+        } else {
+            send("bestmove " + Move.toString(move));
+        }
+    }
+
+    private synchronized void releaseBestMove() {
+        holdBestMove = false;
+        if (bestMovePending) {
+            bestMovePending = false;
+            send("bestmove " + Move.toString(pendingBestMove));
+        }
+    }
+
+    private void sendInfo(int depth, int score, long nodes, long elapsedMillis, int[] pv, int pvLength) {
+        var sb = new StringBuilder(64 + pvLength * 6);
+        sb.append("info depth ").append(depth).append(" score ");
+        if (Math.abs(score) >= Search.MATE_BOUND) {
+            int plies = Search.MATE - Math.abs(score);
+            sb.append("mate ").append(score > 0 ? (plies + 1) / 2 : -(plies / 2));
+        } else {
+            sb.append("cp ").append(score);
+        }
+        sb.append(" nodes ").append(nodes)
+                .append(" nps ").append(nodes * 1000 / Math.max(1, elapsedMillis))
+                .append(" time ").append(elapsedMillis)
+                .append(" hashfull ").append(engine.hashfull())
+                .append(" pv");
+        for (int i = 0; i < pvLength; i++) {
+            sb.append(' ').append(Move.toString(pv[i]));
+        }
+        send(sb.toString());
+    }
+
+    private void waitForSearch() {
+        if (search == null) {
+            return;
+        }
+        // a search still held for ponderhit or stop would never finish on its own
+        synchronized (this) {
+            if (holdBestMove) {
+                engine.stop();
+            }
+        }
+        try {
+            search.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        releaseBestMove();
+        search = null;
+    }
+
+    private Engine engine() {
+        if (engine == null) {
+            engine = new Engine(hashMb, threads, options);
+            engine.setBook(ownBook ? book : null);
+        }
+        return engine;
+    }
+
+    private void send(String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + s);
+        }
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + s);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.package1.chess;
+
+/**
+ * Random keys for Zobrist position hashing. They come from a fixed-seed generator so a position
+ * hashes the same in every run, which lets keys be written to disk and compared across processes.
+ */
+final class Zobrist {
+    /** Indexed {@code piece * 64 + square}. */
+    static final long[] PIECES = new long[12 * 64];
+    /** Indexed by the four-bit castling rights mask. */
+    static final long[] CASTLING = new long[16];
+    static final long[] EP_FILE = new long[8];
+    static final long SIDE;
+
+    private static long state = 0x9E3779B97F4A7C15L;
+
+    static {
+        for (int i = 0; i < PIECES.length; i++) {
+            PIECES[i] = next();
+        }
+        // each right gets its own key and a mask hashes as the xor of its rights
+        long[] rights = new long[4];
+        for (int i = 0; i < 4; i++) {
+            rights[i] = next();
+        }
+        for (int mask = 0; mask < 16; mask++) {
+            for (int i = 0; i < 4; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    CASTLING[mask] ^= rights[i];
+                }
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            EP_FILE[i] = next();
+        }
+        SIDE = next();
+    }
+
+    private Zobrist() {
+    }
+
+    static long piece(int piece, int square) {
+        return PIECES[piece * 64 + square];
+    }
+
+    // xorshift64*
+    private static long next() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+}
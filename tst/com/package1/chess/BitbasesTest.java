@@ -0,0 +1,66 @@
+package com.package1.chess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BitbasesTest {
+    private static final Bitbases BITBASES = Bitbases.generate(ForkJoinPool.commonPool());
+
+    private static int probe(String fen) {
+        var p = new Position();
+        p.setFen(fen);
+        return BITBASES.probe(p);
+    }
+
+    @Test
+    void queenAndRook() {
+        assertEquals(Bitbases.WIN, probe("4k3/8/8/8/8/8/8/3QK3 w - - 0 1"));
+        assertEquals(Bitbases.LOSS, probe("4k3/8/8/8/8/8/8/3QK3 b - - 0 1"));
+        assertEquals(Bitbases.WIN, probe("4k3/8/8/8/8/8/8/R3K3 w - - 0 1"));
+        // stalemate, and a queen left hanging next to the king
+        assertEquals(Bitbases.DRAW, probe("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1"));
+        assertEquals(Bitbases.DRAW, probe("4k3/4Q3/8/8/8/8/8/K7 b - - 0 1"));
+        // black as the strong side
+        assertEquals(Bitbases.WIN, probe("3qk3/8/8/8/8/8/8/4K3 b - - 0 1"));
+        assertEquals(Bitbases.LOSS, probe("3rk3/8/8/8/8/8/8/4K3 w - - 0 1"));
+    }
+
+    @Test
+    void kingAndPawn() {
+        // a king on the sixth in front of its pawn wins whoever moves
+        assertEquals(Bitbases.WIN, probe("4k3/8/4K3/4P3/8/8/8/8 w - - 0 1"));
+        assertEquals(Bitbases.LOSS, probe("4k3/8/4K3/4P3/8/8/8/8 b - - 0 1"));
+        // one step further it is stalemate with the defender to move
+        assertEquals(Bitbases.DRAW, probe("4k3/4P3/4K3/8/8/8/8/8 b - - 0 1"));
+        assertEquals(Bitbases.WIN, probe("4k3/4P3/4K3/8/8/8/8/8 w - - 0 1"));
+        // a rook pawn cannot drive the king out of the corner
+        assertEquals(Bitbases.DRAW, probe("k7/8/8/8/8/8/P7/7K w - - 0 1"));
+        assertEquals(Bitbases.DRAW, probe("8/8/8/8/8/8/p7/K5k1 b - - 0 1"));
+        assertEquals(Bitbases.WIN, probe("8/8/8/8/8/4k3/p7/7K b - - 0 1"));
+    }
+
+    @Test
+    void otherMaterialIsNotCovered() {
+        assertEquals(Bitbases.NONE, probe(Position.START_FEN));
+        assertEquals(Bitbases.NONE, probe("4k3/8/8/8/8/8/8/2B1K3 w - - 0 1"));
+        assertEquals(Bitbases.NONE, probe("4k3/8/8/8/8/8/8/2QQK3 w - - 0 1"));
+    }
+
+    @Test
+    void writeAndLoad() throws IOException {
+        Path dir = Files.createTempDirectory("bitbases");
+        BITBASES.write(dir);
+        Bitbases loaded = Bitbases.load(dir);
+        for (int ending = Bitbases.KQK; ending <= Bitbases.KPK; ending++) {
+            assertEquals(BITBASES.wins(ending), loaded.wins(ending), Bitbases.FILE_NAMES[ending]);
+            Files.delete(dir.resolve(Bitbases.FILE_NAMES[ending]));
+        }
+        Files.delete(dir);
+    }
+}
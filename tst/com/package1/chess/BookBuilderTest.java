@@ -0,0 +1,142 @@
+package com.package1.chess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookBuilderTest {
+    private static Path pgn(String text) throws IOException {
+        Path path = Files.createTempFile("games", ".pgn");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, text, StandardCharsets.ISO_8859_1);
+        return path;
+    }
+
+    private static int weight(PolyglotBook book, Position p, String uci) {
+        int[] moves = new int[64];
+        int[] weights = new int[64];
+        int count = book.moves(p, moves, weights);
+        for (int i = 0; i < count; i++) {
+            if (Move.toString(moves[i]).equals(uci)) {
+                return weights[i];
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    void roundTrip() throws IOException, InterruptedException {
+        Path input = pgn("[Event \"a\"]\n[Result \"1-0\"]\n\n1. e4 e5 {a comment} 2. Nf3 (2. f4) 1-0\n\n"
+                + "[Event \"b\"]\n[Result \"0-1\"]\n\n1. e4 c5 2. Nf3 d6 0-1\n\n"
+                + "[Event \"c\"]\n[Result \"1/2-1/2\"]\n\n1. d4 d5 $1 2. c4 1/2-1/2\n");
+        Path out = Files.createTempFile("book", ".bin");
+        out.toFile().deleteOnExit();
+        var builder = new BookBuilder(30, 1 << 20, out.getParent());
+        builder.read(List.of(input), 2);
+        assertEquals(7, builder.write(out));
+
+        try (PolyglotBook book = PolyglotBook.open(out)) {
+            var model = new ChessModel();
+            model.reset();
+            Position start = model.positionCopy();
+            // a win counts 2 for the winner's moves, a draw 1 for both sides, a loss nothing
+            assertEquals(2, weight(book, start, "e2e4"));
+            assertEquals(1, weight(book, start, "d2d4"));
+            model.makeSanMove("e4");
+            Position afterE4 = model.positionCopy();
+            assertEquals(0, weight(book, afterE4, "e7e5"));
+            assertEquals(2, weight(book, afterE4, "c7c5"));
+            model.makeSanMove("e5");
+            assertEquals(2, weight(book, model.positionCopy(), "g1f3"));
+            assertEquals(0, weight(book, model.positionCopy(), "f2f4"));
+        }
+    }
+
+    @Test
+    void readsCastlingWrittenWithZeros() throws IOException, InterruptedException {
+        Path input = pgn("[Event \"a\"]\n[Result \"1-0\"]\n\n1.e4 e5 2.Nf3 Nc6 3.Bc4 Bc5 4.0-0 Nf6 5.d3 0-0 "
+                + "6.c3 d6 1-0\n");
+        Path out = Files.createTempFile("book", ".bin");
+        out.toFile().deleteOnExit();
+        var builder = new BookBuilder(30, 1 << 20, out.getParent());
+        builder.read(List.of(input), 1);
+        // white's six moves, each a win
+        assertEquals(6, builder.write(out));
+
+        try (PolyglotBook book = PolyglotBook.open(out)) {
+            var model = new ChessModel();
+            model.reset();
+            for (String san : new String[] {"e4", "e5", "Nf3", "Nc6", "Bc4", "Bc5", "O-O", "Nf6", "d3", "O-O"}) {
+                model.makeSanMove(san);
+            }
+            assertEquals(2, weight(book, model.positionCopy(), "c2c3"));
+        }
+    }
+
+    // fully disambiguated SAN, which the builder reads like any other
+    private static String san(Position p, int move) {
+        if (Move.flag(move) == Move.CASTLING) {
+            return Move.to(move) > Move.from(move) ? "O-O" : "O-O-O";
+        }
+        int type = Position.typeOf(p.pieceAt(Move.from(move)));
+        String uci = Move.toString(move);
+        return (type == Position.PAWN ? "" : "KQBRN".substring(type, type + 1)) + uci.substring(0, 4)
+                + (Move.promotion(move) != 0 ? "=" + "KQBRN".charAt(Move.promotion(move)) : "");
+    }
+
+    private static String randomGames(int games, int plies) {
+        var random = new Random(1);
+        var text = new StringBuilder();
+        var p = new Position();
+        var legal = new MoveList();
+        for (int g = 0; g < games; g++) {
+            p.setStartPosition();
+            text.append("[Result \"1/2-1/2\"]\n\n");
+            for (int ply = 0; ply < plies; ply++) {
+                MoveGenerator.generateLegal(p, legal);
+                if (legal.size() == 0) {
+                    break;
+                }
+                int move = legal.get(random.nextInt(legal.size()));
+                text.append(san(p, move)).append(' ');
+                p.makeMove(move);
+            }
+            text.append("1/2-1/2\n\n");
+        }
+        return text.toString();
+    }
+
+    @Test
+    void readsFullyDisambiguatedMoves() throws IOException, InterruptedException {
+        Path input = pgn(randomGames(200, 30));
+        Path out = Files.createTempFile("book", ".bin");
+        out.toFile().deleteOnExit();
+        var builder = new BookBuilder(30, 1 << 20, out.getParent());
+        builder.read(List.of(input), 2);
+        builder.write(out);
+        try (PolyglotBook book = PolyglotBook.open(out)) {
+            assertTrue(book.entries() > 200 * 25);
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void workerFailureIsReported() throws IOException {
+        // enough positions for shards to spill, into a directory that is not there, and more games
+        // left after that than the queue holds
+        Path input = pgn(randomGames(10000, 30));
+        Path missing = input.getParent().resolve("no-such-directory-" + System.nanoTime());
+        var builder = new BookBuilder(30, 0, missing);
+        assertThrows(IOException.class, () -> builder.read(List.of(input), 2));
+    }
+}
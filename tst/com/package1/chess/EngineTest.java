@@ -0,0 +1,36 @@
+package com.package1.chess;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class EngineTest {
+    @Test
+    @Timeout(30)
+    void stopReachesEverySearchStarted() throws InterruptedException, ExecutionException {
+        var engine = new Engine(1, 1);
+        var position = new Position();
+        position.setFen(Position.START_FEN);
+        var answers = new AtomicInteger();
+        var listener = new Engine.BestMoveListener() {
+            @Override
+            public void onBestMove(int move) {
+                assertNotEquals(Move.NONE, move);
+                answers.incrementAndGet();
+            }
+        };
+        Future<?> first = engine.go(position, SearchLimits.depth(Search.MAX_PLY - 1), null, listener);
+        Future<?> second = engine.go(position, SearchLimits.depth(Search.MAX_PLY - 1), null, listener);
+        Thread.sleep(100);
+        engine.stop();
+        first.get();
+        second.get();
+        assertEquals(2, answers.get());
+    }
+}
@@ -0,0 +1,105 @@
+package com.package1.chess;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameProtocolTest {
+    private final ByteBuffer buffer = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+
+    // the frame just put, positioned after its length, which must count the rest of it
+    private ByteBuffer frame(int type) {
+        buffer.flip();
+        assertEquals(buffer.remaining() - 2, buffer.getShort() & 0xFFFF);
+        assertTrue(buffer.limit() <= GameProtocol.MAX_FRAME_BYTES);
+        assertEquals(type, buffer.get());
+        return buffer;
+    }
+
+    @Test
+    void movesSurviveTheWire() {
+        var position = new Position();
+        var moves = new MoveList();
+        // castling both ways, en passant and promotions with and without capture
+        for (String fen : new String[] {Perft.SUITE_FENS[1], "n3k3/1P6/8/2pP4/8/8/6p1/4K2R w K c6 0 1"}) {
+            position.setFen(fen);
+            MoveGenerator.generateLegal(position, moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                int wire = GameProtocol.toWire(move);
+                assertEquals(wire & 0xFFFF, wire);
+                assertEquals(Move.from(move), GameProtocol.wireFrom(wire));
+                assertEquals(Move.to(move), GameProtocol.wireTo(wire));
+                assertEquals(Move.promotion(move), GameProtocol.wirePromotion(wire));
+            }
+        }
+    }
+
+    @Test
+    void moveFrame() {
+        int wire = GameProtocol.toWire(Move.promotion(Bitboards.square(4, 6), Bitboards.square(4, 7), Position.QUEEN));
+        GameProtocol.putMove(buffer, 70000, 65535, wire, -1);
+        ByteBuffer in = frame(GameProtocol.MOVE);
+        assertEquals(70000, in.getInt());
+        assertEquals(65535, in.getShort() & 0xFFFF);
+        assertEquals(wire, in.getShort() & 0xFFFF);
+        assertEquals(-1, in.getInt());
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    void joinedAndErrorFrames() {
+        GameProtocol.putJoined(buffer, 3, Position.BLACK, 41);
+        ByteBuffer in = frame(GameProtocol.JOINED);
+        assertEquals(3, in.getInt());
+        assertEquals(Position.BLACK, in.get());
+        assertEquals(41, in.getShort());
+        assertEquals(0, in.remaining());
+
+        buffer.clear();
+        GameProtocol.putError(buffer, 3, 41, GameProtocol.GAME_OVER);
+        in = frame(GameProtocol.ERROR);
+        assertEquals(3, in.getInt());
+        assertEquals(41, in.getShort());
+        assertEquals(GameProtocol.GAME_OVER, in.get());
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    void shortFrames() {
+        GameProtocol.putJoin(buffer, -2);
+        assertIntFrame(GameProtocol.JOIN, -2);
+        GameProtocol.putResign(buffer, 5);
+        assertIntFrame(GameProtocol.RESIGN, 5);
+        GameProtocol.putWatch(buffer, 0);
+        assertIntFrame(GameProtocol.WATCH, 0);
+        GameProtocol.putPing(buffer, Integer.MIN_VALUE);
+        assertIntFrame(GameProtocol.PING, Integer.MIN_VALUE);
+        GameProtocol.putPong(buffer, Integer.MAX_VALUE);
+        assertIntFrame(GameProtocol.PONG, Integer.MAX_VALUE);
+    }
+
+    private void assertIntFrame(int type, int value) {
+        ByteBuffer in = frame(type);
+        assertEquals(value, in.getInt());
+        assertEquals(0, in.remaining());
+        buffer.clear();
+    }
+
+    @Test
+    void snapshotFrame() {
+        String fen = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+        GameProtocol.putSnapshot(buffer, 9, 300, true, fen);
+        ByteBuffer in = frame(GameProtocol.SNAPSHOT);
+        assertEquals(9, in.getInt());
+        assertEquals(300, in.getShort());
+        assertEquals(1, in.get());
+        byte[] text = new byte[in.remaining()];
+        in.get(text);
+        assertEquals(fen, new String(text, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,126 @@
+package com.package1.chess;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GameServerTest {
+    private static final class LineClient implements AutoCloseable {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        LineClient(int port, String greeting) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(greeting);
+        }
+
+        String read() throws IOException {
+            return in.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void mateEndsTheGame() throws IOException {
+        try (var server = GameServer.start(0, 1);
+             var white = new LineClient(server.port(), "game 0")) {
+            // the first to join plays white
+            assertEquals("color white", white.read());
+            try (var black = new LineClient(server.port(), "game 0")) {
+                assertEquals("color black", black.read());
+                foolsMate(white, black);
+            }
+
+            white.out.println("0,1,0,2");
+            assertEquals("error game over", white.read());
+            try (var spectator = new LineClient(server.port(), "watch 0")) {
+                assertEquals("snapshot 4 rnb1kbnr/pppp1ppp/8/4p3/6Pq/5P2/PPPPP2P/RNBQKBNR w KQkq - 1 3",
+                        spectator.read());
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void binarySpectatorSeesMovesAndTheEnd() throws IOException {
+        try (var server = GameServer.start(0, 1);
+             var white = new LineClient(server.port(), "game 0");
+             var spectator = new Socket("localhost", server.port())) {
+            assertEquals("color white", white.read());
+            var in = watch(spectator, 0, 0, false);
+            try (var black = new LineClient(server.port(), "game 0")) {
+                assertEquals("color black", black.read());
+                foolsMate(white, black);
+            }
+            int[] expected = {Move.of(13, 21), Move.of(52, 36, Move.DOUBLE_PUSH), Move.of(14, 30, Move.DOUBLE_PUSH),
+                    Move.of(59, 31)};
+            for (int ply = 0; ply < expected.length; ply++) {
+                ByteBuffer move = readFrame(in);
+                assertEquals(GameProtocol.MOVE, move.get());
+                assertEquals(0, move.getInt());
+                assertEquals(ply, move.getShort());
+                assertEquals(GameProtocol.toWire(expected[ply]), move.getShort() & 0xFFFF);
+            }
+            try (var late = new Socket("localhost", server.port())) {
+                watch(late, 0, 4, true);
+            }
+        }
+    }
+
+    // greets in the binary protocol, watches the game and checks the snapshot it is sent
+    private static DataInputStream watch(Socket socket, int gameId, int plies, boolean over) throws IOException {
+        var in = new DataInputStream(socket.getInputStream());
+        var out = new DataOutputStream(socket.getOutputStream());
+        out.write(new byte[] {(byte) GameProtocol.MAGIC, 1, (byte) GameProtocol.VERSION});
+        byte[] answer = new byte[2];
+        in.readFully(answer);
+        assertArrayEquals(new byte[] {(byte) GameProtocol.MAGIC, (byte) GameProtocol.VERSION}, answer);
+
+        var frame = ByteBuffer.allocate(GameProtocol.MAX_FRAME_BYTES);
+        GameProtocol.putWatch(frame, gameId);
+        out.write(frame.array(), 0, frame.position());
+        ByteBuffer snapshot = readFrame(in);
+        assertEquals(GameProtocol.SNAPSHOT, snapshot.get());
+        assertEquals(gameId, snapshot.getInt());
+        assertEquals(plies, snapshot.getShort());
+        assertEquals(over ? 1 : 0, snapshot.get());
+        return in;
+    }
+
+    private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        byte[] body = new byte[in.readUnsignedShort()];
+        in.readFully(body);
+        return ByteBuffer.wrap(body);
+    }
+
+    private static void foolsMate(LineClient white, LineClient black) throws IOException {
+        white.out.println("5,1,5,2");
+        assertEquals("5,1,5,2", black.read());
+        black.out.println("4,6,4,4");
+        assertEquals("4,6,4,4", white.read());
+        white.out.println("6,1,6,3");
+        assertEquals("6,1,6,3", black.read());
+        black.out.println("3,7,7,3");
+        assertEquals("3,7,7,3", white.read());
+    }
+}
@@ -0,0 +1,52 @@
+package com.package1.chess;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The reference positions of {@link Perft#SUITE_FENS}, to the depths that run in seconds. */
+class PerftTest {
+    private static final long MAX_NODES = 5_000_000;
+
+    @Test
+    void suite() {
+        var perft = new Perft();
+        var position = new Position();
+        for (int i = 0; i < Perft.SUITE_FENS.length; i++) {
+            position.setFen(Perft.SUITE_FENS[i]);
+            for (int depth = 1; depth <= Perft.SUITE_COUNTS[i].length; depth++) {
+                long expected = Perft.SUITE_COUNTS[i][depth - 1];
+                if (expected > MAX_NODES) {
+                    break;
+                }
+                assertEquals(expected, perft.perft(position, depth), Perft.SUITE_FENS[i] + " depth " + depth);
+            }
+        }
+    }
+
+    @Test
+    void unmakeRestoresThePosition() {
+        var position = new Position();
+        position.setFen(Perft.SUITE_FENS[1]);
+        String fen = position.toFen();
+        long hash = position.hash;
+        var moves = new MoveList();
+        MoveGenerator.generateLegal(position, moves);
+        for (int i = 0; i < moves.size(); i++) {
+            position.makeMove(moves.get(i));
+            assertEquals(position.computeHash(), position.hash, Move.toString(moves.get(i)));
+            position.unmakeMove(moves.get(i));
+            assertEquals(fen, position.toFen());
+            assertEquals(hash, position.hash);
+        }
+    }
+
+    @Test
+    void castlingRightsWithoutKingOrRookAreIgnored() {
+        var position = new Position();
+        position.setFen("4k3/8/8/8/8/8/8/4K3 w KQkq - 0 1");
+        assertEquals(25, new Perft().perft(position, 2));
+        position.setFen("r3k3/8/8/8/8/8/8/4K2R w KQkq - 0 1");
+        assertEquals(Position.WHITE_KINGSIDE | Position.BLACK_QUEENSIDE, position.castlingRights);
+    }
+}
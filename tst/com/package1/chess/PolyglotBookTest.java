@@ -0,0 +1,90 @@
+package com.package1.chess;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolyglotBookTest {
+    private static Position position(String fen) {
+        var p = new Position();
+        p.setFen(fen);
+        return p;
+    }
+
+    private static int move(Position p, String uci) {
+        var legal = new MoveList();
+        MoveGenerator.generateLegal(p, legal);
+        for (int i = 0; i < legal.size(); i++) {
+            if (Move.toString(legal.get(i)).equals(uci)) {
+                return legal.get(i);
+            }
+        }
+        throw new AssertionError(uci + " is not legal");
+    }
+
+    /** A book file of {key, book move, weight} entries, which it sorts by key as Polyglot does. */
+    private static Path book(long[]... entries) throws IOException {
+        Arrays.sort(entries, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compareUnsigned(a[0], b[0]);
+            }
+        });
+        Path path = Files.createTempFile("book", ".bin");
+        path.toFile().deleteOnExit();
+        try (var out = new DataOutputStream(Files.newOutputStream(path))) {
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeShort((int) entry[1]);
+                out.writeShort((int) entry[2]);
+                out.writeInt(0);
+            }
+        }
+        return path;
+    }
+
+    @Test
+    void findsMovesByKey() throws IOException {
+        Position start = position("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
+        Position castle = position("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+        int e4 = move(start, "e2e4");
+        int d4 = move(start, "d2d4");
+        int shortCastle = move(castle, "e1g1");
+        Path path = book(new long[] {PolyglotKeys.key(start), PolyglotBook.toBookMove(d4), 5},
+                new long[] {PolyglotKeys.key(start), PolyglotBook.toBookMove(e4), 10},
+                new long[] {PolyglotKeys.key(castle), PolyglotBook.toBookMove(shortCastle), 1});
+        try (PolyglotBook book = PolyglotBook.open(path)) {
+            assertEquals(3, book.entries());
+            assertEquals(e4, book.bestMove(start));
+            assertEquals(shortCastle, book.bestMove(castle));
+            assertEquals(Move.NONE, book.bestMove(position("4k3/8/8/8/8/8/8/4K3 w - - 0 1")));
+            int picked = book.pickMove(start);
+            assertTrue(picked == e4 || picked == d4);
+        }
+    }
+
+    @Test
+    void castlingIsTheKingTakingItsRook() {
+        Position castle = position("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+        // e1h1 and e1a1 in Polyglot's to-file, to-row, from-file, from-row order
+        assertEquals(7 | 4 << 6, PolyglotBook.toBookMove(move(castle, "e1g1")));
+        assertEquals(4 << 6, PolyglotBook.toBookMove(move(castle, "e1c1")));
+    }
+
+    @Test
+    void rejectsPartialEntries() throws IOException {
+        Path path = Files.createTempFile("book", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, new byte[20]);
+        assertThrows(IOException.class, () -> PolyglotBook.open(path).close());
+    }
+}
@@ -0,0 +1,43 @@
+package com.package1.chess;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The test positions and keys published with the Polyglot book specification. */
+class PolyglotKeysTest {
+    private static long key(String fen) {
+        var p = new Position();
+        p.setFen(fen);
+        return PolyglotKeys.key(p);
+    }
+
+    @Test
+    void startPosition() {
+        var p = new Position();
+        p.setStartPosition();
+        assertEquals(PolyglotKeys.START_KEY, PolyglotKeys.key(p));
+    }
+
+    @Test
+    void specificationPositions() {
+        assertEquals(0x823C9B50FD114196L, key("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1"));
+        assertEquals(0x0756B94461C50FB0L, key("rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 2"));
+        assertEquals(0x662FAFB965DB29D4L, key("rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR b KQkq - 0 2"));
+        assertEquals(0x22A48B5A8E47FF78L, key("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3"));
+        assertEquals(0x652A607CA3F242C1L, key("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR b kq - 0 3"));
+        assertEquals(0x00FDD303C946BDD9L, key("rnbq1bnr/ppp1pkpp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR w - - 0 4"));
+        assertEquals(0x3C8123EA7B067637L, key("rnbqkbnr/p1pppppp/8/8/PpP4P/8/1P1PPPP1/RNBQKBNR b KQkq c3 0 3"));
+        assertEquals(0x5C3F9B829B279560L, key("rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 0 4"));
+    }
+
+    @Test
+    void modelKeyFollowsMoves() {
+        var model = new ChessModel();
+        model.reset();
+        for (String move : new String[] {"e2e4", "d7d5", "e4e5", "f7f5", "e1e2", "e8f7"}) {
+            model.makeMove(model.findLegalMove(move));
+        }
+        assertEquals(0x00FDD303C946BDD9L, model.polyglotKey());
+    }
+}
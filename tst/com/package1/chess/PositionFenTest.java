@@ -0,0 +1,78 @@
+package com.package1.chess;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PositionFenTest {
+    private static Position position(String fen) {
+        var p = new Position();
+        p.setFen(fen);
+        return p;
+    }
+
+    private static void rejects(String fen) {
+        assertThrows(IllegalArgumentException.class, () -> position(fen), fen);
+    }
+
+    @Test
+    void roundTrip() {
+        for (String fen : Perft.SUITE_FENS) {
+            assertEquals(fen, position(fen).toFen());
+        }
+        assertEquals(Position.START_FEN, position("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -").toFen());
+    }
+
+    @Test
+    void halfmoveClockWithoutFullmoveNumber() {
+        Position p = position("4k3/8/8/8/8/8/8/4K3 w - - 37");
+        assertEquals(37, p.halfmoveClock);
+        assertEquals(1, p.fullmoveNumber);
+    }
+
+    @Test
+    void rejectsMalformedFields() {
+        rejects("");
+        rejects("4k3/8/8/8/8/8/8/4K3 w -");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - - 0 1 extra");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - e");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - e9 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - i6 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - e3 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 x - - 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w KX - 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - - x 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - - -1 1");
+        rejects("4k3/8/8/8/8/8/8/4K3 w - - 0 0");
+    }
+
+    @Test
+    void rejectsBadPlacement() {
+        rejects("4k3/8/8/8/8/8/8 w - - 0 1");
+        rejects("4k3/8/8/8/8/8/8/8/4K3 w - - 0 1");
+        rejects("4k4/8/8/8/8/8/8/4K3 w - - 0 1");
+        rejects("4k2/8/8/8/8/8/8/4K3 w - - 0 1");
+        rejects("4k3/8/8/8/8/8/8/4K3X w - - 0 1");
+        rejects("8/8/8/8/8/8/8/4K3 w - - 0 1");
+        rejects("4k3/8/8/8/8/8/8/3KK3 w - - 0 1");
+        rejects("P3k3/8/8/8/8/8/8/4K3 w - - 0 1");
+        rejects("4k3/8/8/8/8/8/8/p3K3 w - - 0 1");
+        // the side not to move is in check
+        rejects("4k3/8/8/8/8/8/8/4R1K1 w - - 0 1");
+    }
+
+    @Test
+    void dropsEnPassantNoPushCanHaveLeft() {
+        assertEquals(-1, position("4k3/8/8/8/8/8/8/4K3 w - e6 0 1").epSquare);
+        assertEquals(Bitboards.square(4, 5), position("4k3/8/8/4p3/8/8/8/4K3 w - e6 0 1").epSquare);
+    }
+
+    @Test
+    void modelKeepsItsPositionOnBadFen() {
+        var model = new ChessModel();
+        model.reset();
+        assertThrows(IllegalArgumentException.class, () -> model.setFen("4k3/8/8/8/8/8/8/4K3 w - e"));
+        assertEquals(Position.START_FEN, model.toFen());
+    }
+}
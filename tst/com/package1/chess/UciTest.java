@@ -0,0 +1,56 @@
+package com.package1.chess;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UciTest {
+    private static String session(String... commands) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        new Uci(new BufferedReader(new StringReader(String.join("\n", commands) + "\n")), out).loop();
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static int count(String output, String prefix) {
+        int n = 0;
+        for (String line : output.split("\n")) {
+            if (line.startsWith(prefix)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    @Timeout(30)
+    void badPositionsKeepTheSessionAndThePreviousPosition() throws IOException {
+        String output = session(
+                "position fen 4k3/8/8/8/8/8/8/4K3 w - e",
+                "position fen 4k3/8/8/8/8/8/8/4K3 w KQkq - 0 1",
+                "go depth 3",
+                "position startpos moves e2e4 zz",
+                "go depth 1",
+                "isready");
+        assertTrue(output.contains("info string Bad en-passant square"), output);
+        assertTrue(output.contains("info string illegal move zz"), output);
+        assertEquals(2, count(output, "bestmove e1"), output);
+        assertTrue(output.contains("readyok"), output);
+    }
+
+    @Test
+    @Timeout(30)
+    void bestMoveIsSentWithoutLegalMoves() throws IOException {
+        String output = session("position fen 7k/5Q2/6K1/8/8/8/8/8 b - - 0 1", "go depth 2");
+        assertEquals(1, count(output, "bestmove 0000"), output);
+    }
+}